@@ -0,0 +1,23 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+public class PreferenceDependencyTest extends AndroidTestCase {
+
+    public void testCycleNotIncludingDependent_throws() {
+        final Context context = PreferenceTestUtils.createThemedContext(getContext());
+        final PreferenceManager preferenceManager = new PreferenceManager(context, null);
+        final PreferenceScreen screen = preferenceManager.inflateFromResource(context,
+                rikka.materialpreference.test.R.xml.dependency_cycle, null);
+        preferenceManager.setPreferences(screen);
+
+        try {
+            // a registers first and walks b -> c -> b, which does not lead back to a
+            screen.onAttached();
+            fail("The dependency cycle was not detected");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("cycle"));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Tests the key index of {@link PreferenceManager} and compares it with walking the
+ * hierarchy on a large screen.
+ */
+public class PreferenceKeyIndexTest extends AndroidTestCase {
+
+    private static final String TAG = "PreferenceKeyIndexTest";
+
+    private Context mContext;
+    private PreferenceManager mPreferenceManager;
+    private PreferenceScreen mScreen;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = PreferenceTestUtils.createThemedContext(getContext());
+        mPreferenceManager = new PreferenceManager(mContext, null);
+        mScreen = mPreferenceManager.createPreferenceScreen(mContext);
+        mPreferenceManager.setPreferences(mScreen);
+    }
+
+    public void testDuplicateKeys_firstRegisteredIsKept() {
+        final Preference first = PreferenceTestUtils.createPreference(mContext, "key");
+        final Preference second = PreferenceTestUtils.createPreference(mContext, "key");
+        mScreen.addPreference(first);
+        mScreen.addPreference(second);
+
+        assertSame(first, mPreferenceManager.findPreference("key"));
+
+        // Rebuilding the index on inflation keeps the same preference
+        mPreferenceManager.setPreferences(null);
+        mPreferenceManager.setPreferences(mScreen);
+        assertSame(first, mPreferenceManager.findPreference("key"));
+    }
+
+    public void testDuplicateKeys_otherOwnerIsFoundAfterRemoval() {
+        final Preference first = PreferenceTestUtils.createPreference(mContext, "key");
+        final Preference second = PreferenceTestUtils.createPreference(mContext, "key");
+        mScreen.addPreference(first);
+        mScreen.addPreference(second);
+
+        mScreen.removePreference(first);
+        assertSame(second, mPreferenceManager.findPreference("key"));
+
+        mScreen.removePreference(second);
+        assertNull(mPreferenceManager.findPreference("key"));
+    }
+
+    public void testDuplicateKeys_otherOwnerIsFoundAfterKeyChange() {
+        final Preference first = PreferenceTestUtils.createPreference(mContext, "key");
+        final Preference second = PreferenceTestUtils.createPreference(mContext, "key");
+        mScreen.addPreference(first);
+        mScreen.addPreference(second);
+
+        first.setKey("other");
+        assertSame(second, mPreferenceManager.findPreference("key"));
+        assertSame(first, mPreferenceManager.findPreference("other"));
+    }
+
+    public void testDuplicateKeys_removedGroupIsSkipped() {
+        final PreferenceCategory category = new PreferenceCategory(mContext);
+        mScreen.addPreference(category);
+        final Preference inGroup = PreferenceTestUtils.createPreference(mContext, "key");
+        category.addPreference(inGroup);
+        final Preference outside = PreferenceTestUtils.createPreference(mContext, "key");
+        mScreen.addPreference(outside);
+
+        assertSame(inGroup, mPreferenceManager.findPreference("key"));
+
+        mScreen.removePreference(category);
+        assertSame(outside, mPreferenceManager.findPreference("key"));
+    }
+
+    /**
+     * Looks up every key of a screen of 5000 preferences through the index and by walking
+     * the hierarchy, and logs both times.
+     */
+    public void testFindPreference_benchmark() {
+        final int categories = 50;
+        final int perCategory = 100;
+        for (int c = 0; c < categories; c++) {
+            final PreferenceCategory category = new PreferenceCategory(mContext);
+            mScreen.addPreference(category);
+            for (int i = 0; i < perCategory; i++) {
+                category.addPreference(
+                        PreferenceTestUtils.createPreference(mContext, "key_" + c + "_" + i));
+            }
+        }
+
+        final String[] keys = new String[categories * perCategory];
+        for (int c = 0; c < categories; c++) {
+            for (int i = 0; i < perCategory; i++) {
+                keys[c * perCategory + i] = "key_" + c + "_" + i;
+            }
+        }
+
+        long start = System.nanoTime();
+        for (String key : keys) {
+            assertNotNull(mPreferenceManager.findPreference(key));
+        }
+        final long indexNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (String key : keys) {
+            assertNotNull(mScreen.findPreference(key));
+        }
+        final long walkNanos = System.nanoTime() - start;
+
+        Log.i(TAG, "findPreference of " + keys.length + " keys: index "
+                + indexNanos / 1000 + " us, hierarchy walk " + walkNanos / 1000 + " us");
+        assertTrue("The index is slower than walking the hierarchy", indexNanos < walkNanos);
+    }
+}
@@ -0,0 +1,161 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests parsing and evaluating {@link PreferencePredicate}s and the conditions of
+ * {@link Preference#setVisibleWhen(String)} and {@link Preference#setEnabledWhen(String)}.
+ */
+public class PreferencePredicateTest extends AndroidTestCase {
+
+    private Context mContext;
+    private PreferenceManager mPreferenceManager;
+    private PreferenceScreen mScreen;
+    private CheckBoxPreference mSwitch;
+    private EditTextPreference mName;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = PreferenceTestUtils.createThemedContext(getContext());
+        mPreferenceManager = new PreferenceManager(mContext, null);
+        mScreen = mPreferenceManager.createPreferenceScreen(mContext);
+        mPreferenceManager.setPreferences(mScreen);
+        // As the fragment does once the screen is shown, so that conditions are registered
+        mScreen.onAttached();
+
+        mSwitch = new CheckBoxPreference(mContext);
+        mSwitch.setPersistent(false);
+        mSwitch.setKey("switch");
+        mScreen.addPreference(mSwitch);
+
+        mName = new EditTextPreference(mContext);
+        mName.setPersistent(false);
+        mName.setKey("name");
+        mScreen.addPreference(mName);
+    }
+
+    public void testParse_keys() {
+        final PreferencePredicate predicate = PreferencePredicate.parse(
+                " switch && !other && name == a b && name != c ");
+        final String[] keys = predicate.getKeys();
+        assertEquals(4, keys.length);
+        assertEquals("switch", keys[0]);
+        assertEquals("other", keys[1]);
+        assertEquals("name", keys[2]);
+        assertEquals("name", keys[3]);
+    }
+
+    public void testParse_malformed_throws() {
+        final String[] expressions = {"", "switch && ", "!", "== value"};
+        for (String expression : expressions) {
+            try {
+                PreferencePredicate.parse(expression);
+                fail("Parsed \"" + expression + "\"");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    public void testEvaluate_set() {
+        final PreferencePredicate set = PreferencePredicate.parse("switch");
+        final PreferencePredicate notSet = PreferencePredicate.parse("!switch");
+
+        mSwitch.setChecked(false);
+        assertFalse(set.evaluate(mPreferenceManager));
+        assertTrue(notSet.evaluate(mPreferenceManager));
+
+        mSwitch.setChecked(true);
+        assertTrue(set.evaluate(mPreferenceManager));
+        assertFalse(notSet.evaluate(mPreferenceManager));
+    }
+
+    public void testEvaluate_equals() {
+        final PreferencePredicate equals = PreferencePredicate.parse("name == a b");
+        final PreferencePredicate notEquals = PreferencePredicate.parse("name != a b");
+
+        assertFalse(equals.evaluate(mPreferenceManager));
+        assertTrue(notEquals.evaluate(mPreferenceManager));
+
+        mName.setText("a b");
+        assertTrue(equals.evaluate(mPreferenceManager));
+        assertFalse(notEquals.evaluate(mPreferenceManager));
+    }
+
+    public void testEvaluate_allClausesMustHold() {
+        final PreferencePredicate predicate = PreferencePredicate.parse("switch && name");
+
+        mSwitch.setChecked(true);
+        assertFalse(predicate.evaluate(mPreferenceManager));
+
+        mName.setText("value");
+        assertTrue(predicate.evaluate(mPreferenceManager));
+    }
+
+    public void testEvaluate_missingPreference_isNull() {
+        assertFalse(PreferencePredicate.parse("missing").evaluate(mPreferenceManager));
+        assertTrue(PreferencePredicate.parse("!missing").evaluate(mPreferenceManager));
+        assertTrue(PreferencePredicate.parse("missing != x").evaluate(mPreferenceManager));
+    }
+
+    public void testVisibleWhen_followsValue() {
+        final Preference preference = PreferenceTestUtils.createPreference(mContext, "a");
+        preference.setVisibleWhen("switch");
+        mScreen.addPreference(preference);
+        assertFalse(preference.isVisible());
+
+        mSwitch.setChecked(true);
+        assertTrue(preference.isVisible());
+    }
+
+    public void testEnabledWhen_followsValue() {
+        final Preference preference = PreferenceTestUtils.createPreference(mContext, "a");
+        preference.setEnabledWhen("switch");
+        mScreen.addPreference(preference);
+        assertFalse(preference.isEnabled());
+
+        mSwitch.setChecked(true);
+        assertTrue(preference.isEnabled());
+    }
+
+    public void testClearVisibleWhen_showsPreference() {
+        final Preference preference = PreferenceTestUtils.createPreference(mContext, "a");
+        preference.setVisibleWhen("switch");
+        mScreen.addPreference(preference);
+        assertFalse(preference.isVisible());
+
+        preference.setVisibleWhen(null);
+        assertTrue(preference.isVisible());
+
+        // No longer follows the value
+        mSwitch.setChecked(true);
+        mSwitch.setChecked(false);
+        assertTrue(preference.isVisible());
+    }
+
+    public void testClearEnabledWhen_enablesPreferenceAndDependents() {
+        final Preference preference = PreferenceTestUtils.createPreference(mContext, "a");
+        preference.setEnabledWhen("switch");
+        mScreen.addPreference(preference);
+        final Preference dependent = PreferenceTestUtils.createPreference(mContext, "b");
+        mScreen.addPreference(dependent);
+        dependent.setDependency("a");
+        assertFalse(preference.isEnabled());
+        assertFalse(dependent.isEnabled());
+
+        preference.setEnabledWhen(null);
+        assertTrue(preference.isEnabled());
+        assertTrue(dependent.isEnabled());
+    }
+
+    public void testReplaceEnabledWhen_evaluatesNewCondition() {
+        final Preference preference = PreferenceTestUtils.createPreference(mContext, "a");
+        preference.setEnabledWhen("switch");
+        mScreen.addPreference(preference);
+        assertFalse(preference.isEnabled());
+
+        preference.setEnabledWhen("!switch");
+        assertTrue(preference.isEnabled());
+    }
+}
@@ -0,0 +1,263 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link PreferenceRowView} and compares rendering it with rendering the inflated
+ * preference layout.
+ */
+public class PreferenceRowViewTest extends AndroidTestCase {
+
+    private static final String TAG = "PreferenceRowViewTest";
+
+    private static final int WIDTH = 720;
+
+    private static final int WARMUP_PASSES = 3;
+
+    private Context mContext;
+    private PreferenceManager mPreferenceManager;
+    private PreferenceScreen mScreen;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = PreferenceTestUtils.createThemedContext(getContext());
+        mPreferenceManager = new PreferenceManager(mContext, null);
+        mScreen = mPreferenceManager.createPreferenceScreen(mContext);
+        mPreferenceManager.setPreferences(mScreen);
+    }
+
+    private PreferenceRowView createRow() {
+        final PreferenceRowView row = new PreferenceRowView(mContext);
+        // As the adapter does for preferences without a widget
+        row.getWidgetFrame().setVisibility(View.GONE);
+        return row;
+    }
+
+    private List<Preference> addPreferences(String prefix, int count) {
+        final ArrayList<Preference> preferences = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Preference preference = PreferenceTestUtils.createPreference(mContext,
+                    prefix + i);
+            preference.setTitle("Title of preference " + prefix + i);
+            preference.setSummary("A summary long enough to wrap onto a second line, so "
+                    + "that laying it out is not trivial, for preference " + prefix + i);
+            mScreen.addPreference(preference);
+            preferences.add(preference);
+        }
+        return preferences;
+    }
+
+    private static void bindAndMeasure(PreferenceRowView row, Preference preference) {
+        preference.onBindViewHolder(new PreferenceViewHolder(row));
+        row.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+    }
+
+    /**
+     * Waits until the background layouts of the preferences have been delivered to the
+     * main thread.
+     */
+    private static void awaitPrecomputed(List<Preference> preferences) {
+        final long deadline = SystemClock.uptimeMillis() + 10000;
+        for (Preference preference : preferences) {
+            while (preference.getPrecomputedLayout(false, preference.getSummary()) == null) {
+                assertTrue("Layouts were not precomputed",
+                        SystemClock.uptimeMillis() < deadline);
+                SystemClock.sleep(10);
+            }
+        }
+    }
+
+    public void testPrecompute_usesWidthOfMeasuredRow() {
+        final List<Preference> preferences = addPreferences("width_", 2);
+        final PreferenceRowView row = createRow();
+        bindAndMeasure(row, preferences.get(0));
+
+        mPreferenceManager.getTextLayoutPrecomputer().precompute(preferences);
+        awaitPrecomputed(preferences);
+
+        final int textWidth = WIDTH - row.getPaddingLeft() - row.getPaddingRight();
+        final Preference preference = preferences.get(1);
+        assertEquals(textWidth,
+                preference.getPrecomputedLayout(true, preference.getTitle()).getWidth());
+        assertEquals(textWidth,
+                preference.getPrecomputedLayout(false, preference.getSummary()).getWidth());
+    }
+
+    public void testRtl_widgetIsAtTheLeft() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            // No layout direction before API 17
+            return;
+        }
+
+        final PreferenceRowView row = new PreferenceRowView(mContext);
+        LayoutInflater.from(mContext).inflate(R.layout.preference_widget_checkbox,
+                row.getWidgetFrame());
+        row.setTitle("Title");
+        row.setLayoutDirection(View.LAYOUT_DIRECTION_RTL);
+
+        row.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        row.layout(0, 0, row.getMeasuredWidth(), row.getMeasuredHeight());
+        assertEquals(row.getPaddingLeft(), row.getWidgetFrame().getLeft());
+
+        row.setLayoutDirection(View.LAYOUT_DIRECTION_LTR);
+        row.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        row.layout(0, 0, row.getMeasuredWidth(), row.getMeasuredHeight());
+        assertEquals(WIDTH - row.getPaddingRight(), row.getWidgetFrame().getRight());
+    }
+
+    public void testRebind_refreshesTextChangedWithoutNotify() {
+        final String[] summary = {"Before"};
+        final Preference preference = new Preference(mContext) {
+            @Override
+            public CharSequence getSummary() {
+                return summary[0];
+            }
+        };
+        preference.setPersistent(false);
+        preference.setTitle("Title");
+        mScreen.addPreference(preference);
+
+        final PreferenceRowView row = createRow();
+        final PreferenceViewHolder rowHolder = new PreferenceViewHolder(row);
+        final View view = LayoutInflater.from(mContext).inflate(R.layout.preference_material,
+                null);
+        final PreferenceViewHolder viewHolder = new PreferenceViewHolder(view);
+        preference.onBindViewHolder(rowHolder);
+        preference.onBindViewHolder(viewHolder);
+
+        // Changes the summary without notifyChanged(), as setEntries of a ListPreference does
+        summary[0] = "After";
+        preference.onBindViewHolder(rowHolder);
+        preference.onBindViewHolder(viewHolder);
+
+        assertEquals("After", row.getSummary().toString());
+        assertEquals("After", ((TextView) view.findViewById(android.R.id.summary))
+                .getText().toString());
+    }
+
+    /**
+     * The times one pass over the rows of an adapter took in each phase.
+     */
+    private static final class RowTimes {
+        long bindNanos;
+        long measureNanos;
+        long layoutNanos;
+        long drawNanos;
+
+        @Override
+        public String toString() {
+            return "bind " + bindNanos / 1000 + " us, measure " + measureNanos / 1000
+                    + " us, layout " + layoutNanos / 1000 + " us, draw " + drawNanos / 1000
+                    + " us";
+        }
+    }
+
+    /**
+     * Binds every row of the adapter to one holder created by the adapter, as a scrolling
+     * list rebinds recycled holders, then measures, lays out and draws it into a bitmap.
+     */
+    private static RowTimes runRows(PreferenceGroupAdapter adapter, PreferenceViewHolder holder,
+            Canvas canvas) {
+        final RowTimes times = new RowTimes();
+        final View view = holder.itemView;
+        final int widthSpec = View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY);
+        final int heightSpec = View.MeasureSpec.makeMeasureSpec(0,
+                View.MeasureSpec.UNSPECIFIED);
+
+        final int count = adapter.getItemCount();
+        for (int position = 0; position < count; position++) {
+            long start = System.nanoTime();
+            adapter.bindViewHolder(holder, position);
+            times.bindNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            view.measure(widthSpec, heightSpec);
+            times.measureNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+            times.layoutNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            view.draw(canvas);
+            times.drawNanos += System.nanoTime() - start;
+        }
+        return times;
+    }
+
+    /**
+     * Compares rows of 500 preferences rendered with {@link
+     * PreferenceGroupAdapter#RENDER_MODE_INFLATE} and with {@link
+     * PreferenceGroupAdapter#RENDER_MODE_FLAT}, timing bind, measure, layout and draw of
+     * holders created by the adapter, and logs the results. Both modes are warmed up
+     * first, and flat rows are timed once their text layouts have been precomputed.
+     */
+    public void testRenderModes_benchmark() {
+        final List<Preference> preferences = addPreferences("row_", 500);
+        final PreferenceGroupAdapter[] adapters = new PreferenceGroupAdapter[2];
+        final PreferenceViewHolder[] holders = new PreferenceViewHolder[2];
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(WIDTH, WIDTH,
+                Bitmap.Config.ARGB_8888));
+
+        PreferenceTestUtils.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final RecyclerView parent = new RecyclerView(mContext);
+                parent.setLayoutManager(new LinearLayoutManager(mContext));
+
+                final int[] modes = {PreferenceGroupAdapter.RENDER_MODE_INFLATE,
+                        PreferenceGroupAdapter.RENDER_MODE_FLAT};
+                for (int i = 0; i < modes.length; i++) {
+                    adapters[i] = new PreferenceGroupAdapter(mScreen);
+                    adapters[i].setRenderMode(modes[i]);
+                    holders[i] = adapters[i].createViewHolder(parent,
+                            adapters[i].getItemViewType(0));
+                }
+                assertFalse(holders[0].itemView instanceof PreferenceRowView);
+                assertTrue(holders[1].itemView instanceof PreferenceRowView);
+
+                // Warm up both paths, which also records the row for precomputation
+                for (int i = 0; i < WARMUP_PASSES; i++) {
+                    runRows(adapters[0], holders[0], canvas);
+                    runRows(adapters[1], holders[1], canvas);
+                }
+                mPreferenceManager.getTextLayoutPrecomputer().precompute(preferences);
+            }
+        });
+
+        // The layouts are delivered through the main thread, so wait outside of it
+        awaitPrecomputed(preferences);
+
+        PreferenceTestUtils.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final RowTimes inflated = runRows(adapters[0], holders[0], canvas);
+                final RowTimes flat = runRows(adapters[1], holders[1], canvas);
+
+                Log.i(TAG, preferences.size() + " inflated rows: " + inflated);
+                Log.i(TAG, preferences.size() + " flat rows: " + flat);
+            }
+        });
+    }
+}
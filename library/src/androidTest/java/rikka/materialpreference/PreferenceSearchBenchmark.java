@@ -0,0 +1,218 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the latency of {@link PreferenceSearchIndex#query(String, int)} and of filtering
+ * a {@link PreferenceGroupAdapter} with its hits against the number of preferences.
+ * <p>
+ * Results are logged with the tag {@value #TAG}. Each figure is the median of
+ * {@value #ITERATIONS} runs after {@value #WARMUP} runs to warm up.
+ */
+public class PreferenceSearchBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "PreferenceSearchBench";
+
+    private static final int[] CORPUS_SIZES = {500, 1000, 2000, 5000};
+
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 50;
+
+    /**
+     * The number of hits shown while searching, as in {@link PreferenceFragment}.
+     */
+    private static final int MAX_RESULTS = 100;
+
+    /**
+     * The time a frame has at 60 Hz.
+     */
+    private static final long FRAME_NANOS = 16666667;
+
+    /**
+     * The latency a query on {@value #LARGE_CORPUS_SIZE} preferences must stay under.
+     */
+    private static final long QUERY_BUDGET_NANOS = 1000000;
+    private static final int LARGE_CORPUS_SIZE = 5000;
+
+    private static final String QUERY_EXACT = "notifications";
+    private static final String QUERY_PREFIX = "notif";
+    private static final String QUERY_MISSPELLED = "notifcations";
+
+    private static final String[] WORDS = {
+            "account", "alarm", "animation", "app", "audio", "autofill", "backup", "battery",
+            "bluetooth", "brightness", "cache", "calendar", "camera", "cellular", "contacts",
+            "data", "date", "default", "developer", "display", "download", "email", "font",
+            "gesture", "history", "keyboard", "language", "location", "lock", "media",
+            "memory", "message", "microphone", "mobile", "network", "night", "notifications",
+            "password", "payment", "permission", "phone", "privacy", "profile", "ringtone",
+            "screen", "security", "sound", "storage", "sync", "theme", "time", "update",
+            "usage", "vibration", "volume", "wallpaper", "wifi", "zone"
+    };
+
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = PreferenceTestUtils.createThemedContext(getContext());
+    }
+
+    /**
+     * A hierarchy of synthetic preferences whose titles and summaries are made of common
+     * settings words, and an adapter showing it.
+     */
+    private final class Corpus {
+        final PreferenceManager preferenceManager;
+        final PreferenceScreen screen;
+        final PreferenceGroupAdapter adapter;
+        final long indexNanos;
+
+        Corpus(int size) {
+            preferenceManager = new PreferenceManager(mContext, null);
+            screen = preferenceManager.createPreferenceScreen(mContext);
+
+            final Random random = new Random(size);
+            for (int i = 0; i < size; i++) {
+                final Preference preference = PreferenceTestUtils.createPreference(mContext,
+                        "pref_" + i);
+                preference.setTitle(words(random, 3) + " " + i);
+                preference.setSummary(words(random, 8));
+                screen.addPreference(preference);
+            }
+            preferenceManager.setPreferences(screen);
+            adapter = new PreferenceGroupAdapter(screen);
+
+            final long start = System.nanoTime();
+            preferenceManager.getSearchIndex();
+            indexNanos = System.nanoTime() - start;
+        }
+
+        List<Preference> query(String query) {
+            final List<PreferenceSearchIndex.Hit> hits =
+                    preferenceManager.getSearchIndex().query(query, MAX_RESULTS);
+            final List<Preference> preferences = new ArrayList<>(hits.size());
+            for (PreferenceSearchIndex.Hit hit : hits) {
+                preferences.add(hit.getPreference());
+            }
+            return preferences;
+        }
+    }
+
+    private static String words(Random random, int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the median time of a task over {@value #ITERATIONS} runs, after warming up.
+     */
+    private static long medianNanos(Runnable task) {
+        for (int i = 0; i < WARMUP; i++) {
+            task.run();
+        }
+
+        final long[] nanos = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = System.nanoTime();
+            task.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos[ITERATIONS / 2];
+    }
+
+    private static long medianQueryNanos(final Corpus corpus, final String query) {
+        assertFalse("No hits for \"" + query + "\"", corpus.query(query).isEmpty());
+        return medianNanos(new Runnable() {
+            @Override
+            public void run() {
+                corpus.preferenceManager.getSearchIndex().query(query, MAX_RESULTS);
+            }
+        });
+    }
+
+    /**
+     * Logs the latency of exact, prefix and misspelled queries and of filtering the adapter
+     * with their hits for each corpus size, and the slowest keystroke while typing the
+     * misspelled query against one frame.
+     */
+    public void testQuery_latencyByCorpusSize() {
+        PreferenceTestUtils.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int size : CORPUS_SIZES) {
+                    final Corpus corpus = new Corpus(size);
+
+                    final long exact = medianQueryNanos(corpus, QUERY_EXACT);
+                    final long prefix = medianQueryNanos(corpus, QUERY_PREFIX);
+                    final long misspelled = medianQueryNanos(corpus, QUERY_MISSPELLED);
+
+                    final List<Preference> hits = corpus.query(QUERY_EXACT);
+                    final long filter = medianNanos(new Runnable() {
+                        @Override
+                        public void run() {
+                            corpus.adapter.setFilter(hits);
+                        }
+                    });
+
+                    // Every keystroke queries again and filters the list with the hits
+                    long slowestKeystroke = 0;
+                    for (int length = 1; length <= QUERY_MISSPELLED.length(); length++) {
+                        final String typed = QUERY_MISSPELLED.substring(0, length);
+                        slowestKeystroke = Math.max(slowestKeystroke, medianNanos(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        corpus.adapter.setFilter(corpus.query(typed));
+                                    }
+                                }));
+                    }
+
+                    Log.i(TAG, size + " preferences: index built in "
+                            + corpus.indexNanos / 1000 + " us, query exact " + exact / 1000
+                            + " us, prefix " + prefix / 1000 + " us, misspelled "
+                            + misspelled / 1000 + " us, setFilter " + filter / 1000
+                            + " us, slowest keystroke " + slowestKeystroke / 1000 + " us ("
+                            + slowestKeystroke * 100 / FRAME_NANOS + "% of a frame)");
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks that exact and prefix queries on {@value #LARGE_CORPUS_SIZE} preferences take
+     * less than a millisecond. The median is compared, so a single slow run caused by
+     * garbage collection or scheduling does not fail the test.
+     */
+    public void testQuery_largeCorpus_underOneMillisecond() {
+        PreferenceTestUtils.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final Corpus corpus = new Corpus(LARGE_CORPUS_SIZE);
+
+                final long exact = medianQueryNanos(corpus, QUERY_EXACT);
+                final long prefix = medianQueryNanos(corpus, QUERY_PREFIX);
+                Log.i(TAG, LARGE_CORPUS_SIZE + " preferences: median query exact "
+                        + exact / 1000 + " us, prefix " + prefix / 1000 + " us");
+
+                assertTrue("Exact query took " + exact / 1000 + " us",
+                        exact < QUERY_BUDGET_NANOS);
+                assertTrue("Prefix query took " + prefix / 1000 + " us",
+                        prefix < QUERY_BUDGET_NANOS);
+            }
+        });
+    }
+}
@@ -0,0 +1,74 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.ContextThemeWrapper;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Helpers shared by the instrumentation tests.
+ */
+final class PreferenceTestUtils {
+
+    private PreferenceTestUtils() {
+    }
+
+    /**
+     * Returns a context with an AppCompat theme and the preference theme overlay, as a
+     * {@link PreferenceFragment} would use.
+     */
+    static Context createThemedContext(Context context) {
+        final Context themed = new ContextThemeWrapper(context,
+                R.style.Theme_AppCompat_Light);
+        themed.getTheme().applyStyle(R.style.PreferenceThemeOverlay, true);
+        return themed;
+    }
+
+    /**
+     * Creates a preference with the given key, without persisting its value.
+     */
+    static Preference createPreference(Context context, String key) {
+        final Preference preference = new Preference(context);
+        preference.setPersistent(false);
+        preference.setKey(key);
+        preference.setTitle(key);
+        return preference;
+    }
+
+    /**
+     * Runs a task on the main thread and waits for it, for code that needs a looper such as
+     * {@link PreferenceGroupAdapter}. Errors thrown by the task are thrown again here.
+     */
+    static void runOnMainSync(final Runnable task) {
+        final Throwable[] error = new Throwable[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    error[0] = t;
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (error[0] instanceof RuntimeException) {
+            throw (RuntimeException) error[0];
+        } else if (error[0] instanceof Error) {
+            throw (Error) error[0];
+        } else if (error[0] != null) {
+            throw new RuntimeException(error[0]);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CheckedTextView;
+import android.widget.FrameLayout;
+
+/**
+ * Makes sure binding a {@link SimpleMenuPreference} and the items of its menu allocates
+ * nothing once the views exist.
+ */
+public class SimpleMenuPreferenceAllocationTest extends AndroidTestCase {
+
+    private static final int ITERATIONS = 1000;
+
+    private static final CharSequence[] ENTRIES = {"One", "Two", "Three", "Four"};
+
+    private Context mContext;
+    private SimpleMenuPreference mPreference;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = PreferenceTestUtils.createThemedContext(getContext());
+
+        final PreferenceManager preferenceManager = new PreferenceManager(mContext, null);
+        final PreferenceScreen screen = preferenceManager.createPreferenceScreen(mContext);
+        preferenceManager.setPreferences(screen);
+
+        mPreference = new SimpleMenuPreference(mContext);
+        mPreference.setPersistent(false);
+        mPreference.setKey("menu");
+        mPreference.setEntries(ENTRIES);
+        mPreference.setEntryValues(ENTRIES);
+        mPreference.setValue("Two");
+        screen.addPreference(mPreference);
+    }
+
+    /**
+     * Returns the number of objects allocated by the current thread while running a task.
+     */
+    @SuppressWarnings("deprecation")
+    private static int countAllocations(Runnable task) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            task.run();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+
+    public void testBindPreference_allocatesNothing() {
+        final ViewGroup parent = new FrameLayout(mContext);
+        final View view = LayoutInflater.from(mContext)
+                .inflate(mPreference.getLayoutResource(), parent, false);
+        final PreferenceViewHolder holder = new PreferenceViewHolder(view);
+
+        // The first bind may post the popup or dialog decision once
+        mPreference.onBindViewHolder(holder);
+        mPreference.onBindViewHolder(holder);
+
+        final int allocations = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    mPreference.onBindViewHolder(holder);
+                }
+            }
+        });
+        assertEquals("Allocations in " + ITERATIONS + " binds", 0, allocations);
+    }
+
+    public void testBindMenuItems_allocatesNoMoreThanTheTextViews() {
+        final RecyclerView.Adapter<?> adapter = mPreference.getMenuAdapter();
+        final ViewGroup parent = new FrameLayout(mContext);
+        final RecyclerView.ViewHolder holder = adapter.createViewHolder(parent, 0);
+        final CheckedTextView textView =
+                (CheckedTextView) holder.itemView.findViewById(android.R.id.text1);
+
+        // Warm up both paths
+        bindItems(adapter, holder);
+        setItems(textView);
+
+        // What the text view itself allocates for the same calls, which varies by platform
+        final int textViewAllocations = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                setItems(textView);
+            }
+        });
+        final int bindAllocations = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                bindItems(adapter, holder);
+            }
+        });
+
+        assertTrue("Binding " + ITERATIONS + " items allocated " + bindAllocations
+                        + " objects, the text view calls alone " + textViewAllocations,
+                bindAllocations <= textViewAllocations);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <VH extends RecyclerView.ViewHolder> void bindItems(
+            RecyclerView.Adapter<VH> adapter, RecyclerView.ViewHolder holder) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            adapter.bindViewHolder((VH) holder, i % ENTRIES.length);
+        }
+    }
+
+    private static void setItems(CheckedTextView textView) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final int position = i % ENTRIES.length;
+            textView.setText(ENTRIES[position]);
+            textView.setChecked(position == 1);
+            textView.setMaxLines(1);
+        }
+    }
+}
@@ -115,7 +115,7 @@ public class CheckBoxPreference extends TwoStatePreference {
         syncCheckboxView(checkboxView);
 
         View summaryView = view.findViewById(android.R.id.summary);
-        syncSummaryView(summaryView);
+        syncSummaryView(summaryView != null ? summaryView : view);
     }
 
     private void syncCheckboxView(View view) {
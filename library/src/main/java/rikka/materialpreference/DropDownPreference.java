@@ -20,10 +20,19 @@ import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.v7.widget.AppCompatSpinner;
 import android.util.AttributeSet;
+import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.Filter;
 import android.widget.Spinner;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * A version of {@link ListPreference} that presents the options in a drop down menu rather than a dialog.
@@ -68,25 +77,33 @@ public class DropDownPreference extends ListPreference {
     }
 
     /**
-     * By default, this class uses a simple {@link android.widget.ArrayAdapter}. But if you need
-     * a more complicated {@link android.widget.ArrayAdapter}, this method can be overridden to
-     * create a custom one.
+     * By default, this class uses a simple {@link android.widget.ArrayAdapter} that shows the
+     * entries as they are, spans included, without copying them. But if you need a more
+     * complicated {@link android.widget.ArrayAdapter}, this method can be overridden to
+     * create a custom one, which is filled with the entries as strings.
      * <p> Note: This method is called from the constructor. So, overridden methods will get called
      * before any subclass initialization.
      *
      * @return The custom {@link android.widget.ArrayAdapter} that needs to be used with this class.
      */
     protected ArrayAdapter<String> createAdapter() {
-        return new ArrayAdapter<>(mContext, R.layout.preference_dropdown_item);
+        return new EntriesAdapter(mContext);
     }
 
     private void updateEntries() {
+        if (mAdapter instanceof EntriesAdapter) {
+            ((EntriesAdapter) mAdapter).setEntries(getEntries());
+            return;
+        }
+
+        mAdapter.setNotifyOnChange(false);
         mAdapter.clear();
         if (getEntries() != null) {
             for (CharSequence c : getEntries()) {
                 mAdapter.add(c.toString());
             }
         }
+        mAdapter.notifyDataSetChanged();
     }
 
     @Override
@@ -98,31 +115,34 @@ public class DropDownPreference extends ListPreference {
      * @hide
      */
     public int findSpinnerIndexOfValue(String value) {
-        Object[] entryValues = getEntryValues();
-        if (value != null && entryValues != null) {
-            for (int i = entryValues.length - 1; i >= 0; i--) {
-                if (entryValues[i].equals(value)) {
-                    return i;
-                }
-            }
-        }
-        return Spinner.INVALID_POSITION;
+        final int index = findIndexOfValue(value);
+        return index >= 0 ? index : Spinner.INVALID_POSITION;
     }
 
     @Override
     protected void notifyChanged() {
         super.notifyChanged();
-        mAdapter.notifyDataSetChanged();
+        // The default adapter only changes with the entries
+        if (!(mAdapter instanceof EntriesAdapter)) {
+            mAdapter.notifyDataSetChanged();
+        }
     }
 
     @Override
     public void onBindViewHolder(PreferenceViewHolder view) {
         super.onBindViewHolder(view);
 
-        mSpinner = (AppCompatSpinner) view.itemView.findViewById(R.id.spinner);
-        mSpinner.setAdapter(mAdapter);
-        mSpinner.setOnItemSelectedListener(mItemSelectedListener);
-        mSpinner.setSelection(findSpinnerIndexOfValue(getValue()));
+        mSpinner = (AppCompatSpinner) view.findViewById(R.id.spinner);
+        if (mSpinner.getAdapter() != mAdapter) {
+            // First bind of this holder, or it was last bound to another preference
+            mSpinner.setAdapter(mAdapter);
+            mSpinner.setOnItemSelectedListener(mItemSelectedListener);
+        }
+
+        final int index = findSpinnerIndexOfValue(getValue());
+        if (mSpinner.getSelectedItemPosition() != index) {
+            mSpinner.setSelection(index);
+        }
     }
 
     private final AdapterView.OnItemSelectedListener mItemSelectedListener = new AdapterView.OnItemSelectedListener() {
@@ -141,4 +161,163 @@ public class DropDownPreference extends ListPreference {
             // noop
         }
     };
+
+    /**
+     * Shows the entries as they are, without copying them. The list of {@link ArrayAdapter}
+     * is only used once the adapter is changed or filtered through the {@link ArrayAdapter}
+     * methods, for example by a subclass that adds items to the adapter returned by
+     * {@link #createAdapter()}. The entries are then copied into it as strings and the
+     * adapter behaves like a plain {@link ArrayAdapter} from then on.
+     */
+    private static class EntriesAdapter extends ArrayAdapter<String> {
+
+        private final LayoutInflater mInflater;
+        private CharSequence[] mEntries;
+        private boolean mCopied;
+
+        EntriesAdapter(Context context) {
+            super(context, R.layout.preference_dropdown_item);
+            mInflater = LayoutInflater.from(context);
+        }
+
+        void setEntries(CharSequence[] entries) {
+            if (mCopied) {
+                setNotifyOnChange(false);
+                super.clear();
+                if (entries != null) {
+                    super.addAll(toStrings(entries));
+                }
+                notifyDataSetChanged();
+            } else if (mEntries != entries) {
+                mEntries = entries;
+                notifyDataSetChanged();
+            }
+        }
+
+        /**
+         * Fills the list of {@link ArrayAdapter} with the entries, before it is changed or
+         * filtered.
+         */
+        private void copyEntries() {
+            if (mCopied) {
+                return;
+            }
+            mCopied = true;
+
+            if (mEntries != null) {
+                super.addAll(toStrings(mEntries));
+            }
+            mEntries = null;
+        }
+
+        private static List<String> toStrings(CharSequence[] entries) {
+            final ArrayList<String> strings = new ArrayList<>(entries.length);
+            for (CharSequence entry : entries) {
+                strings.add(entry.toString());
+            }
+            return strings;
+        }
+
+        @Override
+        public void add(String object) {
+            copyEntries();
+            super.add(object);
+        }
+
+        @Override
+        public void addAll(Collection<? extends String> collection) {
+            copyEntries();
+            super.addAll(collection);
+        }
+
+        @Override
+        public void addAll(String... items) {
+            copyEntries();
+            super.addAll(items);
+        }
+
+        @Override
+        public void insert(String object, int index) {
+            copyEntries();
+            super.insert(object, index);
+        }
+
+        @Override
+        public void remove(String object) {
+            copyEntries();
+            super.remove(object);
+        }
+
+        @Override
+        public void clear() {
+            copyEntries();
+            super.clear();
+        }
+
+        @Override
+        public void sort(Comparator<? super String> comparator) {
+            copyEntries();
+            super.sort(comparator);
+        }
+
+        @NonNull
+        @Override
+        public Filter getFilter() {
+            copyEntries();
+            return super.getFilter();
+        }
+
+        @Override
+        public int getCount() {
+            if (mCopied) {
+                return super.getCount();
+            }
+            return mEntries == null ? 0 : mEntries.length;
+        }
+
+        @Override
+        public String getItem(int position) {
+            if (mCopied) {
+                return super.getItem(position);
+            }
+            return mEntries[position].toString();
+        }
+
+        @Override
+        public int getPosition(String item) {
+            if (mCopied) {
+                return super.getPosition(item);
+            }
+            for (int i = 0; i < getCount(); i++) {
+                if (mEntries[i].toString().equals(item)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            if (mCopied) {
+                return super.getView(position, convertView, parent);
+            }
+            final TextView view = (TextView) (convertView != null ? convertView
+                    : mInflater.inflate(R.layout.preference_dropdown_item, parent, false));
+            view.setText(mEntries[position]);
+            return view;
+        }
+
+        @Override
+        public View getDropDownView(int position, View convertView, ViewGroup parent) {
+            if (mCopied) {
+                return super.getDropDownView(position, convertView, parent);
+            }
+            return getView(position, convertView, parent);
+        }
+    }
 }
@@ -17,6 +17,7 @@
 package rikka.materialpreference;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.os.Bundle;
 import android.os.Parcel;
@@ -27,8 +28,12 @@ import android.support.v4.content.res.TypedArrayUtils;
 import android.text.InputType;
 import android.text.TextUtils;
 import android.util.AttributeSet;
+import android.util.JsonReader;
+import android.util.JsonWriter;
 import android.widget.EditText;
 
+import java.io.IOException;
+
 /**
  * A {@link Preference} that allows for string
  * input.
@@ -41,7 +46,7 @@ import android.widget.EditText;
 public class EditTextPreference extends DialogPreference {
 
     private String mText;
-    private String mSummary;
+    private SummaryFormatter mSummaryFormatter;
     private int mInputType;
     private boolean mSingleLine;
     private boolean mSelectAllOnFocus;
@@ -72,8 +77,8 @@ public class EditTextPreference extends DialogPreference {
         a = context.obtainStyledAttributes(attrs,
                 R.styleable.Preference, defStyleAttr, defStyleRes);
 
-        mSummary = TypedArrayUtils.getString(a, R.styleable.Preference_summary,
-                R.styleable.Preference_android_summary);
+        mSummaryFormatter = SummaryFormatter.update(null, TypedArrayUtils.getString(a,
+                R.styleable.Preference_summary, R.styleable.Preference_android_summary));
 
         a.recycle();
     }
@@ -114,6 +119,7 @@ public class EditTextPreference extends DialogPreference {
         if (changed) {
             persistString(text);
             notifyChanged();
+            notifyValueChanged();
         }
 
         final boolean isBlocking = shouldDisableDependents();
@@ -133,10 +139,10 @@ public class EditTextPreference extends DialogPreference {
     @Override
     public CharSequence getSummary() {
         final CharSequence entry = getText();
-        if (mSummary == null) {
+        if (mSummaryFormatter == null) {
             return super.getSummary();
         } else {
-            return String.format(mSummary, entry == null ? "" : entry);
+            return mSummaryFormatter.format(entry);
         }
     }
 
@@ -152,11 +158,7 @@ public class EditTextPreference extends DialogPreference {
     @Override
     public void setSummary(CharSequence summary) {
         super.setSummary(summary);
-        if (summary == null && mSummary != null) {
-            mSummary = null;
-        } else if (summary != null && !summary.equals(mSummary)) {
-            mSummary = summary.toString();
-        }
+        mSummaryFormatter = SummaryFormatter.update(mSummaryFormatter, summary);
     }
 
     /**
@@ -168,6 +170,11 @@ public class EditTextPreference extends DialogPreference {
         return mText;
     }
 
+    @Override
+    protected Object getPredicateValue() {
+        return mText;
+    }
+
     /**
      *
      * @return Input type value.
@@ -202,6 +209,19 @@ public class EditTextPreference extends DialogPreference {
         setText(restoreValue ? getPersistedString(mText) : (String) defaultValue);
     }
 
+    @Override
+    protected boolean onExportValue(JsonWriter writer) throws IOException {
+        writer.name(getKey()).value(getPersistedString(mText));
+        return true;
+    }
+
+    @Override
+    protected boolean onImportValue(JsonReader reader, SharedPreferences.Editor editor)
+            throws IOException {
+        editor.putString(getKey(), reader.nextString());
+        return true;
+    }
+
     @Override
     public boolean shouldDisableDependents() {
         return TextUtils.isEmpty(mText) || super.shouldDisableDependents();
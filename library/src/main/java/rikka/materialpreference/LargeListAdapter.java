@@ -0,0 +1,331 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.SectionIndexer;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Adapter for the large-list mode of {@link ListPreferenceDialogFragment}. Item IDs are the
+ * indices of the entries, so they stay stable while the list is filtered.
+ * <p>
+ * Sections are the distinct first letters of the shown entries in the order they first
+ * appear, for the fast scroller, which works best with sorted entries. Filtering matches
+ * every query word against the prefixes of the words of each entry, using a sorted word
+ * index built in the background by {@link #prepareWordIndex()}, and scanning every entry
+ * until it is ready.
+ */
+final class LargeListAdapter extends BaseAdapter implements SectionIndexer {
+
+    private final LayoutInflater mInflater;
+    private final int mItemLayout;
+    private final CharSequence[] mEntries;
+    private final Locale mLocale;
+
+    /**
+     * The indices of the shown entries, in entry order.
+     */
+    private int[] mPositions;
+    private int mCount;
+
+    private String[] mSections;
+    private int[] mSectionStarts;
+    private int[] mPositionSections;
+
+    private WordIndex mWordIndex;
+    private boolean mWordIndexRequested;
+
+    LargeListAdapter(Context context, CharSequence[] entries) {
+        mInflater = LayoutInflater.from(context);
+        mEntries = entries;
+        mLocale = context.getResources().getConfiguration().locale;
+
+        // Same item layout as AlertDialog single choice items
+        final TypedArray a = context.obtainStyledAttributes(null, R.styleable.AlertDialog,
+                R.attr.alertDialogStyle, 0);
+        mItemLayout = a.getResourceId(R.styleable.AlertDialog_singleChoiceItemLayout,
+                android.R.layout.simple_list_item_single_choice);
+        a.recycle();
+
+        setFilter(null);
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public CharSequence getItem(int position) {
+        return mEntries[mPositions[position]];
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mPositions[position];
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    /**
+     * Returns the position of an entry in the filtered list.
+     *
+     * @param entryIndex The index of the entry.
+     * @return The position, or -1 if the entry is filtered out.
+     */
+    int getPositionOfEntry(int entryIndex) {
+        final int position = Arrays.binarySearch(mPositions, 0, mCount, entryIndex);
+        return position >= 0 ? position : -1;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        final View view = convertView != null
+                ? convertView : mInflater.inflate(mItemLayout, parent, false);
+        ((TextView) view.findViewById(android.R.id.text1)).setText(getItem(position));
+        return view;
+    }
+
+    /**
+     * Builds the word index used by {@link #setFilter(CharSequence)} on the
+     * {@link PreferenceWorker} thread, so that it is usually ready before the first query.
+     */
+    void prepareWordIndex() {
+        if (mWordIndexRequested) {
+            return;
+        }
+        mWordIndexRequested = true;
+
+        final CharSequence[] entries = mEntries;
+        final Locale locale = mLocale;
+        PreferenceWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                final WordIndex wordIndex = new WordIndex(entries, locale);
+                PreferenceWorker.postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mWordIndex = wordIndex;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Shows only the entries matching a query.
+     *
+     * @param query The query, or null to show every entry.
+     */
+    void setFilter(CharSequence query) {
+        final List<String> words = TextUtils.isEmpty(query)
+                ? null : PreferenceSearchIndex.tokenize(query, mLocale);
+
+        if (words == null || words.isEmpty()) {
+            if (mPositions == null || mCount != mEntries.length) {
+                mPositions = new int[mEntries.length];
+                for (int i = 0; i < mEntries.length; i++) {
+                    mPositions[i] = i;
+                }
+                mCount = mEntries.length;
+                mSections = null;
+                notifyDataSetChanged();
+            }
+            return;
+        }
+
+        final BitSet matches = mWordIndex != null
+                ? mWordIndex.match(words) : scan(mEntries, mLocale, words);
+
+        mCount = 0;
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            mPositions[mCount++] = i;
+        }
+        mSections = null;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Groups the shown entries into sections by their first letter. Entries with the same
+     * letter share a section even if they are not consecutive.
+     */
+    private void buildSections() {
+        final HashMap<String, Integer> sectionIndices = new HashMap<>();
+        final ArrayList<String> sections = new ArrayList<>();
+        final int[] starts = new int[mCount];
+        mPositionSections = new int[mCount];
+        for (int position = 0; position < mCount; position++) {
+            final CharSequence entry = mEntries[mPositions[position]];
+            final String letter = entry.length() > 0
+                    ? String.valueOf(entry.charAt(0)).toUpperCase(mLocale) : "";
+            Integer index = sectionIndices.get(letter);
+            if (index == null) {
+                index = sections.size();
+                sectionIndices.put(letter, index);
+                starts[index] = position;
+                sections.add(letter);
+            }
+            mPositionSections[position] = index;
+        }
+        mSections = sections.toArray(new String[sections.size()]);
+        mSectionStarts = Arrays.copyOf(starts, mSections.length);
+    }
+
+    @Override
+    public Object[] getSections() {
+        if (mSections == null) {
+            buildSections();
+        }
+        return mSections;
+    }
+
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        if (mSections == null) {
+            buildSections();
+        }
+        if (mSectionStarts.length == 0) {
+            return 0;
+        }
+        return mSectionStarts[Math.max(0, Math.min(sectionIndex, mSectionStarts.length - 1))];
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        if (mSections == null) {
+            buildSections();
+        }
+        if (mCount == 0) {
+            return 0;
+        }
+        return mPositionSections[Math.max(0, Math.min(position, mCount - 1))];
+    }
+
+    /**
+     * Returns the entries that have, for every query word, a word starting with it, by
+     * tokenizing every entry. Used until the {@link WordIndex} is ready.
+     *
+     * @param entries The entries.
+     * @param locale The locale to tokenize with.
+     * @param words The query words, tokenized like the entries.
+     * @return The indices of the matching entries.
+     */
+    static BitSet scan(CharSequence[] entries, Locale locale, List<String> words) {
+        final BitSet matches = new BitSet(entries.length);
+        if (words.isEmpty()) {
+            return matches;
+        }
+
+        for (int i = 0; i < entries.length; i++) {
+            final List<String> entryWords = PreferenceSearchIndex.tokenize(entries[i], locale);
+            boolean matched = true;
+            for (int j = 0; matched && j < words.size(); j++) {
+                matched = false;
+                for (int k = 0; !matched && k < entryWords.size(); k++) {
+                    matched = entryWords.get(k).startsWith(words.get(j));
+                }
+            }
+            if (matched) {
+                matches.set(i);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Every word of every entry, sorted, and the entry each belongs to.
+     */
+    static final class WordIndex {
+
+        private final int mEntryCount;
+        private final String[] mWords;
+        private final int[] mWordEntries;
+
+        WordIndex(CharSequence[] entries, Locale locale) {
+            mEntryCount = entries.length;
+
+            final ArrayList<String> words = new ArrayList<>(entries.length * 2);
+            final ArrayList<Integer> wordEntries = new ArrayList<>(entries.length * 2);
+            for (int i = 0; i < entries.length; i++) {
+                for (String word : PreferenceSearchIndex.tokenize(entries[i], locale)) {
+                    words.add(word);
+                    wordEntries.add(i);
+                }
+            }
+
+            final Integer[] order = new Integer[words.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return words.get(o1).compareTo(words.get(o2));
+                }
+            });
+
+            mWords = new String[order.length];
+            mWordEntries = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                mWords[i] = words.get(order[i]);
+                mWordEntries[i] = wordEntries.get(order[i]);
+            }
+        }
+
+        /**
+         * Returns the entries that have, for every query word, a word starting with it.
+         *
+         * @param words The query words, tokenized like the entries.
+         * @return The indices of the matching entries.
+         */
+        BitSet match(List<String> words) {
+            BitSet matches = null;
+            for (String word : words) {
+                final BitSet wordMatches = new BitSet(mEntryCount);
+                for (int i = lowerBound(word); i < mWords.length && mWords[i].startsWith(word);
+                        i++) {
+                    wordMatches.set(mWordEntries[i]);
+                }
+                if (matches == null) {
+                    matches = wordMatches;
+                } else {
+                    matches.and(wordMatches);
+                }
+            }
+            return matches != null ? matches : new BitSet();
+        }
+
+        /**
+         * Returns the index of the first word not less than the given one.
+         */
+        private int lowerBound(String word) {
+            int low = 0;
+            int high = mWords.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (mWords[mid].compareTo(word) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
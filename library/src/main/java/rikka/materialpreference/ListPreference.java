@@ -17,6 +17,7 @@
 package rikka.materialpreference;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.os.Bundle;
 import android.os.Parcel;
@@ -27,6 +28,11 @@ import android.support.v4.app.DialogFragment;
 import android.support.v4.content.res.TypedArrayUtils;
 import android.text.TextUtils;
 import android.util.AttributeSet;
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.util.HashMap;
 
 /**
  * A {@link Preference} that displays a list of entries as
@@ -39,12 +45,34 @@ import android.util.AttributeSet;
  * @attr ref android.R.styleable#ListPreference_entryValues
  */
 public class ListPreference extends DialogPreference {
+    /**
+     * The default number of entries from which the dialog shows a filterable list.
+     *
+     * @see #setLargeListThreshold(int)
+     */
+    public static final int DEFAULT_LARGE_LIST_THRESHOLD = 200;
+
     private CharSequence[] mEntries;
     private CharSequence[] mEntryValues;
     private String mValue;
-    private String mSummary;
+    private SummaryFormatter mSummaryFormatter;
     private boolean mValueSet;
 
+    /**
+     * Maps each entry value to its index, built on first lookup.
+     *
+     * @see #findIndexOfValue(String)
+     */
+    private HashMap<String, Integer> mValueIndices;
+
+    /**
+     * The index of {@link #mValue}, valid if {@link #mValueIndexValid} is set.
+     */
+    private int mValueIndex;
+    private boolean mValueIndexValid;
+
+    private int mLargeListThreshold = DEFAULT_LARGE_LIST_THRESHOLD;
+
     public ListPreference(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
         super(context, attrs, defStyleAttr, defStyleRes);
 
@@ -65,8 +93,8 @@ public class ListPreference extends DialogPreference {
         a = context.obtainStyledAttributes(attrs,
                 R.styleable.Preference, defStyleAttr, defStyleRes);
 
-        mSummary = TypedArrayUtils.getString(a, R.styleable.Preference_summary,
-                R.styleable.Preference_android_summary);
+        mSummaryFormatter = SummaryFormatter.update(null, TypedArrayUtils.getString(a,
+                R.styleable.Preference_summary, R.styleable.Preference_android_summary));
 
         a.recycle();
     }
@@ -106,6 +134,7 @@ public class ListPreference extends DialogPreference {
      */
     public void setEntries(CharSequence[] entries) {
         mEntries = entries;
+        notifySearchableChanged();
     }
 
     /**
@@ -125,6 +154,11 @@ public class ListPreference extends DialogPreference {
         return mEntries;
     }
 
+    @Override
+    protected CharSequence[] getSearchableEntries() {
+        return mEntries;
+    }
+
     /**
      * The array to find the value to save for a preference when an entry from
      * entries is selected. If a user clicks on the second item in entries, the
@@ -134,6 +168,8 @@ public class ListPreference extends DialogPreference {
      */
     public void setEntryValues(CharSequence[] entryValues) {
         mEntryValues = entryValues;
+        mValueIndices = null;
+        mValueIndexValid = false;
     }
 
     /**
@@ -153,6 +189,27 @@ public class ListPreference extends DialogPreference {
         return mEntryValues;
     }
 
+    /**
+     * Sets the number of entries from which the dialog shows the entries in a filterable,
+     * fast-scrolling list instead of plain single choice items.
+     *
+     * @param threshold The number of entries, or {@link Integer#MAX_VALUE} to never use it.
+     * @see #DEFAULT_LARGE_LIST_THRESHOLD
+     */
+    public void setLargeListThreshold(int threshold) {
+        mLargeListThreshold = threshold;
+    }
+
+    /**
+     * Returns the number of entries from which the dialog shows a filterable list.
+     *
+     * @return The threshold.
+     * @see #setLargeListThreshold(int)
+     */
+    public int getLargeListThreshold() {
+        return mLargeListThreshold;
+    }
+
     /**
      * Sets the value of the key. This should be one of the entries in
      * {@link #getEntryValues()}.
@@ -165,9 +222,11 @@ public class ListPreference extends DialogPreference {
         if (changed || !mValueSet) {
             mValue = value;
             mValueSet = true;
+            mValueIndexValid = false;
             persistString(value);
             if (changed) {
                 notifyChanged();
+                notifyValueChanged();
             }
         }
     }
@@ -183,10 +242,10 @@ public class ListPreference extends DialogPreference {
     @Override
     public CharSequence getSummary() {
         final CharSequence entry = getEntry();
-        if (mSummary == null) {
+        if (mSummaryFormatter == null) {
             return super.getSummary();
         } else {
-            return String.format(mSummary, entry == null ? "" : entry);
+            return mSummaryFormatter.format(entry);
         }
     }
 
@@ -202,11 +261,7 @@ public class ListPreference extends DialogPreference {
     @Override
     public void setSummary(CharSequence summary) {
         super.setSummary(summary);
-        if (summary == null && mSummary != null) {
-            mSummary = null;
-        } else if (summary != null && !summary.equals(mSummary)) {
-            mSummary = summary.toString();
-        }
+        mSummaryFormatter = SummaryFormatter.update(mSummaryFormatter, summary);
     }
 
     /**
@@ -230,6 +285,11 @@ public class ListPreference extends DialogPreference {
         return mValue;
     }
 
+    @Override
+    protected Object getPredicateValue() {
+        return mValue;
+    }
+
     /**
      * Returns the entry corresponding to the current value.
      *
@@ -247,18 +307,34 @@ public class ListPreference extends DialogPreference {
      * @return The index of the value, or -1 if not found.
      */
     public int findIndexOfValue(String value) {
-        if (value != null && mEntryValues != null) {
-            for (int i = mEntryValues.length - 1; i >= 0; i--) {
-                if (mEntryValues[i].equals(value)) {
-                    return i;
-                }
+        if (value == null || mEntryValues == null) {
+            return -1;
+        }
+
+        if (mValueIndices == null) {
+            final CharSequence[] entryValues = mEntryValues;
+            mValueIndices = new HashMap<>(entryValues.length * 4 / 3 + 1);
+            // Later entries win, as when searching backwards
+            for (int i = 0; i < entryValues.length; i++) {
+                mValueIndices.put(entryValues[i].toString(), i);
             }
         }
-        return -1;
+
+        final Integer index = mValueIndices.get(value);
+        return index != null ? index : -1;
     }
 
-    private int getValueIndex() {
-        return findIndexOfValue(mValue);
+    /**
+     * Returns the index of the current value, computed once per value.
+     *
+     * @return The index of the value, or -1 if not found.
+     */
+    int getValueIndex() {
+        if (!mValueIndexValid) {
+            mValueIndex = findIndexOfValue(mValue);
+            mValueIndexValid = true;
+        }
+        return mValueIndex;
     }
 
     @Override
@@ -271,6 +347,19 @@ public class ListPreference extends DialogPreference {
         setValue(restoreValue ? getPersistedString(mValue) : (String) defaultValue);
     }
 
+    @Override
+    protected boolean onExportValue(JsonWriter writer) throws IOException {
+        writer.name(getKey()).value(getPersistedString(mValue));
+        return true;
+    }
+
+    @Override
+    protected boolean onImportValue(JsonReader reader, SharedPreferences.Editor editor)
+            throws IOException {
+        editor.putString(getKey(), reader.nextString());
+        return true;
+    }
+
     @Override
     protected Parcelable onSaveInstanceState() {
         final Parcelable superState = super.onSaveInstanceState();
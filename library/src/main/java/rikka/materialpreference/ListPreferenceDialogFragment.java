@@ -16,8 +16,17 @@
 
 package rikka.materialpreference;
 
+import android.content.Context;
 import android.content.DialogInterface;
 import android.support.v7.app.AlertDialog;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ListView;
 
 public class ListPreferenceDialogFragment extends PreferenceDialogFragment {
 
@@ -39,6 +48,13 @@ public class ListPreferenceDialogFragment extends PreferenceDialogFragment {
         }
 
         mClickedDialogEntryIndex = preference.findIndexOfValue(preference.getValue());
+
+        if (preference.getEntries().length >= preference.getLargeListThreshold()) {
+            builder.setView(createLargeListView(builder.getContext(), preference.getEntries()));
+            builder.setPositiveButton(null, null);
+            return;
+        }
+
         builder.setSingleChoiceItems(preference.getEntries(), mClickedDialogEntryIndex,
                 new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int which) {
@@ -62,6 +78,75 @@ public class ListPreferenceDialogFragment extends PreferenceDialogFragment {
         builder.setPositiveButton(null, null);
     }
 
+    /**
+     * Creates the content of the large-list mode: a filter box above a fast-scrolling list
+     * that only creates views for the visible entries, scrolled to the selected entry.
+     */
+    private View createLargeListView(Context context, CharSequence[] entries) {
+        final float density = context.getResources().getDisplayMetrics().density;
+        final int padding = (int) (24 * density);
+
+        final LargeListAdapter adapter = new LargeListAdapter(context, entries);
+        adapter.prepareWordIndex();
+
+        final ListView listView = new ListView(context);
+        listView.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
+        listView.setFastScrollEnabled(true);
+        listView.setAdapter(adapter);
+        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                mClickedDialogEntryIndex = (int) id;
+
+                ListPreferenceDialogFragment.this.onClick(getDialog(),
+                        DialogInterface.BUTTON_POSITIVE);
+                getDialog().dismiss();
+            }
+        });
+        if (mClickedDialogEntryIndex >= 0) {
+            listView.setItemChecked(mClickedDialogEntryIndex, true);
+            listView.setSelection(mClickedDialogEntryIndex);
+        }
+
+        final EditText filter = new EditText(context);
+        filter.setSingleLine(true);
+        filter.setHint(R.string.list_preference_filter_hint);
+        filter.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                adapter.setFilter(s);
+
+                listView.clearChoices();
+                final int position = adapter.getPositionOfEntry(mClickedDialogEntryIndex);
+                if (position >= 0) {
+                    listView.setItemChecked(position, true);
+                }
+                listView.setSelection(0);
+            }
+        });
+
+        final LinearLayout layout = new LinearLayout(context);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        final LinearLayout.LayoutParams filterParams = new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        filterParams.leftMargin = padding;
+        filterParams.rightMargin = padding;
+        layout.addView(filter, filterParams);
+        // A wrapped ListView stops measuring once it fills the height it may take, so only
+        // the visible entries get views
+        layout.addView(listView, new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        return layout;
+    }
+
     @Override
     public void onDialogClosed(boolean positiveResult) {
         final ListPreference preference = getListPreference();
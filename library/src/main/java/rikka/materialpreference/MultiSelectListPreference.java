@@ -28,7 +28,10 @@ import android.support.v4.app.DialogFragment;
 import android.support.v4.content.SharedPreferencesCompat;
 import android.support.v4.content.res.TypedArrayUtils;
 import android.util.AttributeSet;
+import android.util.JsonReader;
+import android.util.JsonWriter;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -159,6 +162,7 @@ public class MultiSelectListPreference extends DialogPreference {
      */
     public void setEntries(CharSequence[] entries) {
         mEntries = entries;
+        notifySearchableChanged();
     }
 
     /**
@@ -178,6 +182,11 @@ public class MultiSelectListPreference extends DialogPreference {
         return mEntries;
     }
 
+    @Override
+    protected CharSequence[] getSearchableEntries() {
+        return mEntries;
+    }
+
     /**
      * The array to find the value to save for a preference when an entry from
      * entries is selected. If a user clicks on the second item in entries, the
@@ -217,6 +226,7 @@ public class MultiSelectListPreference extends DialogPreference {
         mValues.addAll(values);
 
         persistStringSet(values);
+        notifyValueChanged();
     }
 
     /**
@@ -226,6 +236,11 @@ public class MultiSelectListPreference extends DialogPreference {
         return mValues;
     }
 
+    @Override
+    protected Object getPredicateValue() {
+        return mValues;
+    }
+
     /**
      * Returns the index of the given value (in the entry values array).
      *
@@ -273,6 +288,29 @@ public class MultiSelectListPreference extends DialogPreference {
         setValues(restoreValue ? getPersistedStringSet(mValues) : (Set<String>) defaultValue);
     }
 
+    @Override
+    protected boolean onExportValue(JsonWriter writer) throws IOException {
+        writer.name(getKey()).beginArray();
+        for (String value : getPersistedStringSet(mValues)) {
+            writer.value(value);
+        }
+        writer.endArray();
+        return true;
+    }
+
+    @Override
+    protected boolean onImportValue(JsonReader reader, SharedPreferences.Editor editor)
+            throws IOException {
+        final Set<String> values = new HashSet<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            values.add(reader.nextString());
+        }
+        reader.endArray();
+        editor.putStringSet(getKey(), values);
+        return true;
+    }
+
     @Override
     protected Parcelable onSaveInstanceState() {
         final Parcelable superState = super.onSaveInstanceState();
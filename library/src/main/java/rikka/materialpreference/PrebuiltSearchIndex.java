@@ -0,0 +1,375 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads the search index generated at build time by {@code search-index.gradle}, which
+ * covers every preference XML resource of the application, including screens that have
+ * not been inflated.
+ * <p>
+ * The index asset is memory-mapped, so opening it costs no parsing and queries only touch
+ * the pages they need. Hits can be opened with {@link Hit#toFragmentArguments()}.
+ */
+public final class PrebuiltSearchIndex {
+
+    /**
+     * The name of the asset written by {@code search-index.gradle}.
+     */
+    public static final String ASSET_NAME = "preference_search_index.bin";
+
+    private static final int MAGIC = 0x50534931; // "PSI1"
+    private static final int VERSION = 1;
+
+    private static final int ITEM_SIZE = 24;
+    private static final int TOKEN_SIZE = 12;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int mItemCount;
+    private final int mItemTableOffset;
+    private final int mTokenCount;
+    private final int mTokenTableOffset;
+
+    /**
+     * A search result.
+     */
+    public final class Hit {
+
+        private final int mIndex;
+        private final int mScore;
+
+        private Hit(int index, int score) {
+            mIndex = index;
+            mScore = score;
+        }
+
+        private int field(int field) {
+            return mBuffer.getInt(mItemTableOffset + mIndex * ITEM_SIZE + field * 4);
+        }
+
+        /**
+         * Returns the key of the preference.
+         *
+         * @return The key, or null.
+         */
+        public String getKey() {
+            return readString(field(0));
+        }
+
+        /**
+         * Returns the title of the preference.
+         *
+         * @return The title, or null.
+         */
+        public String getTitle() {
+            return readString(field(1));
+        }
+
+        /**
+         * Returns the summary of the preference.
+         *
+         * @return The summary, or null.
+         */
+        public String getSummary() {
+            return readString(field(2));
+        }
+
+        /**
+         * Returns the name of the XML resource that contains the preference.
+         *
+         * @return The resource name.
+         * @see #getScreenResourceId(Context)
+         */
+        public String getScreen() {
+            return readString(field(3));
+        }
+
+        /**
+         * Returns the ID of the XML resource that contains the preference.
+         *
+         * @param context The context of the application.
+         * @return The resource ID, or 0 if it cannot be found.
+         */
+        public int getScreenResourceId(Context context) {
+            return context.getResources().getIdentifier(getScreen(), "xml",
+                    context.getPackageName());
+        }
+
+        /**
+         * Returns the key of the nested {@link PreferenceScreen} that contains the
+         * preference.
+         *
+         * @return The key, or null if the preference is on the root screen.
+         */
+        public String getRootKey() {
+            return readString(field(4));
+        }
+
+        /**
+         * Returns the titles of the groups that lead to the preference, outermost first.
+         *
+         * @return The breadcrumb path.
+         */
+        public List<String> getBreadcrumbs() {
+            final String path = readString(field(5));
+            if (TextUtils.isEmpty(path)) {
+                return Collections.emptyList();
+            }
+            return Arrays.asList(TextUtils.split(path, "\n"));
+        }
+
+        /**
+         * Returns the score of this hit. Higher is better.
+         *
+         * @return The score.
+         */
+        public int getScore() {
+            return mScore;
+        }
+
+        /**
+         * Returns arguments for the {@link PreferenceFragment} that shows the resource
+         * returned by {@link #getScreen()}. The fragment opens the nested screen that
+         * contains the preference, if any, and scrolls to it.
+         *
+         * @return The fragment arguments.
+         * @see PreferenceFragment#ARG_PREFERENCE_ROOT
+         * @see PreferenceFragment#ARG_SCROLL_TO_KEY
+         */
+        public Bundle toFragmentArguments() {
+            final Bundle args = new Bundle();
+            final String rootKey = getRootKey();
+            if (rootKey != null) {
+                args.putString(PreferenceFragment.ARG_PREFERENCE_ROOT, rootKey);
+            }
+            args.putString(PreferenceFragment.ARG_SCROLL_TO_KEY, getKey());
+            return args;
+        }
+    }
+
+    private PrebuiltSearchIndex(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+
+        if (buffer.capacity() < 24 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a preference search index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported preference search index version "
+                    + buffer.getInt(4));
+        }
+
+        mItemCount = buffer.getInt(8);
+        mItemTableOffset = buffer.getInt(12);
+        mTokenCount = buffer.getInt(16);
+        mTokenTableOffset = buffer.getInt(20);
+    }
+
+    /**
+     * Opens the index asset of the application.
+     *
+     * @param context The context of the application.
+     * @return The index.
+     * @throws IOException If the asset is missing or invalid.
+     */
+    public static PrebuiltSearchIndex open(Context context) throws IOException {
+        ByteBuffer buffer;
+        try {
+            final AssetFileDescriptor fd = context.getAssets().openFd(ASSET_NAME);
+            try {
+                final FileInputStream in = fd.createInputStream();
+                final FileChannel channel = in.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(),
+                        fd.getLength());
+            } finally {
+                fd.close();
+            }
+        } catch (FileNotFoundException e) {
+            // Thrown for compressed assets too, read it into memory instead
+            buffer = readFully(context.getAssets().open(ASSET_NAME));
+        }
+        return new PrebuiltSearchIndex(buffer);
+    }
+
+    private static ByteBuffer readFully(InputStream in) throws IOException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the number of preferences in the index.
+     *
+     * @return The number of preferences.
+     */
+    public int size() {
+        return mItemCount;
+    }
+
+    /**
+     * Finds the preferences matching every word of the query, scored like exact and prefix
+     * matches in {@link PreferenceSearchIndex#query(String, int)}. Misspelled words are not
+     * matched.
+     *
+     * @param query The query.
+     * @param maxResults The maximum number of hits to return.
+     * @return The hits, best first.
+     */
+    public List<Hit> query(String query, int maxResults) {
+        final List<String> words = PreferenceSearchIndex.tokenize(query, Locale.ROOT);
+        if (words.isEmpty() || maxResults <= 0) {
+            return Collections.emptyList();
+        }
+
+        HashMap<Integer, Integer> scores = null;
+        for (String word : words) {
+            final HashMap<Integer, Integer> wordScores = new HashMap<>();
+            final byte[] wordBytes = word.getBytes(UTF_8);
+
+            for (int i = lowerBound(wordBytes); i < mTokenCount; i++) {
+                final int token = tokenField(i, 0);
+                if (!startsWith(token, wordBytes)) {
+                    break;
+                }
+
+                final boolean exact = stringLength(token) == wordBytes.length;
+                final int postings = tokenField(i, 1);
+                final int count = tokenField(i, 2);
+                for (int j = 0; j < count; j++) {
+                    final int item = mBuffer.getInt(postings + j * 8);
+                    if (scores != null && !scores.containsKey(item)) {
+                        continue;
+                    }
+
+                    final int weight = mBuffer.getInt(postings + j * 8 + 4);
+                    final int score = exact ? weight * 4 : weight * 2;
+                    final Integer current = wordScores.get(item);
+                    if (current == null || current < score) {
+                        wordScores.put(item, score);
+                    }
+                }
+            }
+
+            if (scores != null) {
+                for (Map.Entry<Integer, Integer> entry : wordScores.entrySet()) {
+                    entry.setValue(entry.getValue() + scores.get(entry.getKey()));
+                }
+            }
+            scores = wordScores;
+
+            if (scores.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+
+        final ArrayList<Hit> hits = new ArrayList<>(scores.size());
+        for (Map.Entry<Integer, Integer> entry : scores.entrySet()) {
+            hits.add(new Hit(entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(hits, new Comparator<Hit>() {
+            @Override
+            public int compare(Hit o1, Hit o2) {
+                if (o1.mScore != o2.mScore) {
+                    return o1.mScore > o2.mScore ? -1 : 1;
+                }
+                return o1.mIndex < o2.mIndex ? -1 : (o1.mIndex == o2.mIndex ? 0 : 1);
+            }
+        });
+
+        return hits.size() > maxResults ? hits.subList(0, maxResults) : hits;
+    }
+
+    /**
+     * Returns the index of the first token not less than the given UTF-8 bytes. Tokens are
+     * sorted in unsigned byte order and compared in place.
+     */
+    private int lowerBound(byte[] token) {
+        int low = 0;
+        int high = mTokenCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compareString(tokenField(mid, 0), token) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int stringLength(int offset) {
+        return mBuffer.getShort(offset) & 0xffff;
+    }
+
+    /**
+     * Compares the string at an offset with UTF-8 bytes, in unsigned byte order.
+     */
+    private int compareString(int offset, byte[] bytes) {
+        final int length = stringLength(offset);
+        final int common = Math.min(length, bytes.length);
+        for (int i = 0; i < common; i++) {
+            final int diff = (mBuffer.get(offset + 2 + i) & 0xff) - (bytes[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - bytes.length;
+    }
+
+    private boolean startsWith(int offset, byte[] prefix) {
+        if (stringLength(offset) < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (mBuffer.get(offset + 2 + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int tokenField(int index, int field) {
+        return mBuffer.getInt(mTokenTableOffset + index * TOKEN_SIZE + field * 4);
+    }
+
+    private String readString(int offset) {
+        if (offset < 0) {
+            return null;
+        }
+
+        final int length = stringLength(offset);
+        final byte[] bytes = new byte[length];
+        final ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset + 2);
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -25,19 +25,26 @@ import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
-import android.support.v4.content.ContextCompat;
 import android.support.v4.content.SharedPreferencesCompat;
 import android.support.v4.content.res.TypedArrayUtils;
+import android.text.Layout;
 import android.text.TextUtils;
 import android.util.AttributeSet;
+import android.util.JsonReader;
+import android.util.JsonWriter;
 import android.view.AbsSavedState;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Represents the basic Preference UI building
@@ -102,6 +109,7 @@ public class Preference implements Comparable<Preference> {
      */
     private int mIconResId;
     private Drawable mIcon;
+    private PreferenceIconSource mIconSource;
     private String mKey;
     private Intent mIntent;
     private String mFragment;
@@ -116,6 +124,15 @@ public class Preference implements Comparable<Preference> {
     private boolean mParentDependencyMet = true;
     private boolean mVisible = true;
 
+    /**
+     * @see #setVisibleWhen(String)
+     * @see #setEnabledWhen(String)
+     */
+    private PreferencePredicate mVisibleWhen;
+    private PreferencePredicate mEnabledWhen;
+    private boolean mPredicateMet = true;
+    private boolean mPredicatesRegistered;
+
     /**
      * @see #setShouldDisableView(boolean)
      */
@@ -126,6 +143,25 @@ public class Preference implements Comparable<Preference> {
 
     private OnPreferenceChangeInternalListener mListener;
 
+    /**
+     * Incremented on every {@link #notifyChanged()}, so a view holder can tell whether it
+     * already shows the current state.
+     */
+    private int mStateVersion;
+
+    private PreferenceGroup mParentGroup;
+
+    /**
+     * Layouts of the title and summary computed in the background, and the texts they were
+     * computed from.
+     *
+     * @see TextLayoutPrecomputer
+     */
+    private Layout mTitleLayout;
+    private CharSequence mTitleLayoutText;
+    private Layout mSummaryLayout;
+    private CharSequence mSummaryLayoutText;
+
     private List<Preference> mDependents;
 
     private boolean mBaseMethodCalled;
@@ -196,6 +232,14 @@ public class Preference implements Comparable<Preference> {
          * @param preference This Preference.
          */
         void onPreferenceVisibilityChange(Preference preference);
+
+        /**
+         * Called once for all the preferences that changed while dependency changes were
+         * being propagated.
+         *
+         * @param preferences The preferences that changed, in the order they first changed.
+         */
+        void onPreferencesChange(Collection<Preference> preferences);
     }
 
     /**
@@ -274,6 +318,16 @@ public class Preference implements Comparable<Preference> {
                 TypedArrayUtils.getBoolean(a, R.styleable.Preference_shouldDisableView,
                         R.styleable.Preference_shouldDisableView, true);
 
+        final String visibleWhen = a.getString(R.styleable.Preference_visibleWhen);
+        if (visibleWhen != null) {
+            mVisibleWhen = PreferencePredicate.parse(visibleWhen);
+        }
+
+        final String enabledWhen = a.getString(R.styleable.Preference_enabledWhen);
+        if (enabledWhen != null) {
+            mEnabledWhen = PreferencePredicate.parse(enabledWhen);
+        }
+
         a.recycle();
     }
 
@@ -469,13 +523,19 @@ public class Preference implements Comparable<Preference> {
      *               returns.
      */
     public void onBindViewHolder(PreferenceViewHolder holder) {
-        holder.itemView.setOnClickListener(mClickListener);
+        final boolean stateChanged = !holder.isBoundTo(this, mStateVersion);
+        holder.setBoundTo(this, mStateVersion);
 
+        // The title and summary can depend on state that does not go through
+        // notifyChanged(), such as the entries of a ListPreference or an overridden
+        // getSummary(), so they are compared on every bind
         final TextView titleView = (TextView) holder.findViewById(android.R.id.title);
         if (titleView != null) {
             final CharSequence title = getTitle();
             if (!TextUtils.isEmpty(title)) {
-                titleView.setText(title);
+                if (!TextUtils.equals(titleView.getText(), title)) {
+                    titleView.setText(title);
+                }
                 titleView.setVisibility(View.VISIBLE);
             } else {
                 titleView.setVisibility(View.GONE);
@@ -486,35 +546,64 @@ public class Preference implements Comparable<Preference> {
         if (summaryView != null) {
             final CharSequence summary = getSummary();
             if (!TextUtils.isEmpty(summary)) {
-                summaryView.setText(summary);
+                if (!TextUtils.equals(summaryView.getText(), summary)) {
+                    summaryView.setText(summary);
+                }
                 summaryView.setVisibility(View.VISIBLE);
             } else {
                 summaryView.setVisibility(View.GONE);
             }
         }
 
+        final PreferenceRowView row = holder.itemView instanceof PreferenceRowView
+                ? (PreferenceRowView) holder.itemView : null;
+        if (row != null) {
+            row.setPreference(this);
+            row.setTitle(getTitle());
+            row.setSummary(getSummary());
+        }
+
+        if (!stateChanged) {
+            // Nothing else changed since this holder was last bound to this preference
+            return;
+        }
+
+        holder.itemView.setOnClickListener(mClickListener);
+
         final ImageView imageView = (ImageView) holder.findViewById(android.R.id.icon);
         if (imageView != null) {
             if (mIconResId != 0 || mIcon != null) {
                 if (mIcon == null) {
-                    mIcon = ContextCompat.getDrawable(getContext(), mIconResId);
+                    mIcon = PreferenceIconCache.get(getContext(), mIconResId);
                 }
-                if (mIcon != null) {
+                if (mIcon != null && mIconSource == null) {
                     imageView.setImageDrawable(mIcon);
                 }
             }
-            imageView.setVisibility(mIcon != null ? View.VISIBLE : View.GONE);
+            if (mIconSource != null) {
+                holder.setIconRequest(PreferenceIconLoader.load(imageView, mIconSource, mIcon,
+                        holder.getIconRequest()));
+            } else {
+                holder.setIconRequest(null);
+            }
+            imageView.setVisibility(mIcon != null || mIconSource != null
+                    ? View.VISIBLE : View.GONE);
         }
 
         final View imageFrame = holder.findViewById(R.id.icon_frame);
         if (imageFrame != null) {
-            imageFrame.setVisibility(mIcon != null ? View.VISIBLE : View.GONE);
+            imageFrame.setVisibility(mIcon != null || mIconSource != null
+                    ? View.VISIBLE : View.GONE);
         }
 
-        if (mShouldDisableView) {
-            setEnabledStateOnViews(holder.itemView, isEnabled());
-        } else {
-            setEnabledStateOnViews(holder.itemView, true);
+        if (row != null) {
+            bindRowIcon(holder, row);
+        }
+
+        final boolean enabled = !mShouldDisableView || isEnabled();
+        if (!holder.isEnabledStateApplied(enabled)) {
+            setEnabledStateOnViews(holder.itemView, enabled);
+            holder.setEnabledStateApplied(enabled);
         }
 
         final boolean selectable = isSelectable();
@@ -524,11 +613,66 @@ public class Preference implements Comparable<Preference> {
         holder.setDividerAllowedBelow(selectable);
     }
 
+    /**
+     * Lays out the title and summary in the background, so that the next flat row bound to
+     * this preference does not have to.
+     */
+    private void precomputeTextLayouts() {
+        if (mPreferenceManager != null) {
+            mPreferenceManager.getTextLayoutPrecomputer()
+                    .precompute(Collections.singletonList(this));
+        }
+    }
+
+    /**
+     * Returns the layout of the title or summary computed by {@link TextLayoutPrecomputer}.
+     *
+     * @param title Whether to return the title layout rather than the summary layout.
+     * @param text The text the layout must have been computed from.
+     * @return The layout, or null if there is none for the text.
+     */
+    Layout getPrecomputedLayout(boolean title, CharSequence text) {
+        if (title) {
+            return TextUtils.equals(mTitleLayoutText, text) ? mTitleLayout : null;
+        }
+        return TextUtils.equals(mSummaryLayoutText, text) ? mSummaryLayout : null;
+    }
+
+    /**
+     * Caches a layout computed by {@link TextLayoutPrecomputer}, unless the text has
+     * changed since it was computed.
+     *
+     * @param title Whether the layout is of the title rather than the summary.
+     * @param text The text the layout was computed from. A title layout is ellipsized, so
+     *             its own text can differ.
+     * @param layout The layout.
+     */
+    void setPrecomputedLayout(boolean title, CharSequence text, Layout layout) {
+        if (title) {
+            if (TextUtils.equals(text, getTitle())) {
+                mTitleLayout = layout;
+                mTitleLayoutText = text;
+            }
+        } else if (TextUtils.equals(text, getSummary())) {
+            mSummaryLayout = layout;
+            mSummaryLayoutText = text;
+        }
+    }
+
+    /**
+     * Returns whether a flat row bound to this preference keeps space for an icon.
+     */
+    boolean hasIcon() {
+        return mIcon != null || mIconResId != 0 || mIconSource != null;
+    }
+
     /**
      * Makes sure the view (and any children) get the enabled state changed.
      */
     private void setEnabledStateOnViews(View v, boolean enabled) {
-        v.setEnabled(enabled);
+        if (v.isEnabled() != enabled) {
+            v.setEnabled(enabled);
+        }
 
         if (v instanceof ViewGroup) {
             final ViewGroup vg = (ViewGroup) v;
@@ -582,6 +726,10 @@ public class Preference implements Comparable<Preference> {
     public void setTitle(CharSequence title) {
         if (title == null && mTitle != null || title != null && !title.equals(mTitle)) {
             mTitle = title;
+            mTitleLayout = null;
+            mTitleLayoutText = null;
+            precomputeTextLayouts();
+            notifySearchableChanged();
             notifyChanged();
         }
     }
@@ -606,6 +754,24 @@ public class Preference implements Comparable<Preference> {
         return mTitle;
     }
 
+    /**
+     * Binds the icon to a flat row, see
+     * {@link PreferenceGroupAdapter#RENDER_MODE_FLAT}.
+     */
+    private void bindRowIcon(PreferenceViewHolder holder, PreferenceRowView row) {
+        if (mIcon == null && mIconResId != 0) {
+            mIcon = PreferenceIconCache.get(getContext(), mIconResId);
+        }
+        if (mIconSource != null) {
+            holder.setIconRequest(PreferenceIconLoader.load(row, mIconSource, mIcon,
+                    holder.getIconRequest()));
+        } else {
+            holder.setIconRequest(null);
+            row.setIcon(mIcon);
+        }
+        row.setIconVisible(mIcon != null || mIconSource != null);
+    }
+
     /**
      * Sets the icon for this Preference with a Drawable.
      * This icon will be placed into the ID
@@ -629,7 +795,7 @@ public class Preference implements Comparable<Preference> {
      * @param iconResId The icon as a resource ID.
      */
     public void setIcon(int iconResId) {
-        setIcon(ContextCompat.getDrawable(mContext, iconResId));
+        setIcon(PreferenceIconCache.get(mContext, iconResId));
         mIconResId = iconResId;
     }
 
@@ -643,6 +809,36 @@ public class Preference implements Comparable<Preference> {
         return mIcon;
     }
 
+    /**
+     * Sets a bitmap icon for this Preference that is decoded in the background, downsampled
+     * to the maximum size of the icon view. Decoded icons are cached, so binding the same
+     * source again shows it immediately.
+     * <p>
+     * While the icon loads, the icon set with {@link #setIcon(Drawable)} is shown as a
+     * placeholder, or the space of the icon is left empty.
+     *
+     * @param iconSource The icon source, or null to show the icon set with
+     *                   {@link #setIcon(Drawable)}.
+     * @see PreferenceIconSource#fromUri(android.net.Uri)
+     * @see PreferenceIconSource#fromFile(java.io.File)
+     */
+    public void setIconSource(PreferenceIconSource iconSource) {
+        if (mIconSource != iconSource) {
+            mIconSource = iconSource;
+            notifyChanged();
+        }
+    }
+
+    /**
+     * Returns the bitmap icon source of this Preference.
+     *
+     * @return The icon source, or null.
+     * @see #setIconSource(PreferenceIconSource)
+     */
+    public PreferenceIconSource getIconSource() {
+        return mIconSource;
+    }
+
     /**
      * Returns the summary of this Preference.
      *
@@ -661,6 +857,10 @@ public class Preference implements Comparable<Preference> {
     public void setSummary(CharSequence summary) {
         if (summary == null && mSummary != null || summary != null && !summary.equals(mSummary)) {
             mSummary = summary;
+            mSummaryLayout = null;
+            mSummaryLayoutText = null;
+            precomputeTextLayouts();
+            notifySearchableChanged();
             notifyChanged();
         }
     }
@@ -698,7 +898,7 @@ public class Preference implements Comparable<Preference> {
      * @return True if this Preference is enabled, false otherwise.
      */
     public boolean isEnabled() {
-        return mEnabled && mDependencyMet && mParentDependencyMet;
+        return mEnabled && mDependencyMet && mParentDependencyMet && mPredicateMet;
     }
 
     /**
@@ -772,6 +972,149 @@ public class Preference implements Comparable<Preference> {
         return mVisible;
     }
 
+    /**
+     * Shows this preference only while the given condition on the values of other
+     * preferences holds, see {@link PreferencePredicate} for the syntax. The condition is
+     * evaluated again whenever one of the preferences it reads changes its value, and
+     * takes over from {@link #setVisible(boolean)}.
+     *
+     * @param expression The condition, or null to remove it.
+     * @throws IllegalArgumentException If the condition is malformed.
+     */
+    public void setVisibleWhen(String expression) {
+        final boolean registered = mPredicatesRegistered;
+        unregisterPredicates();
+
+        final boolean hadCondition = mVisibleWhen != null;
+        mVisibleWhen = expression != null ? PreferencePredicate.parse(expression) : null;
+
+        if (mVisibleWhen == null && hadCondition) {
+            // Undo whatever the old condition decided
+            setVisible(true);
+        }
+
+        if (registered) {
+            registerPredicates();
+        }
+    }
+
+    /**
+     * Returns the condition set with {@link #setVisibleWhen(String)}.
+     *
+     * @return The condition, or null.
+     */
+    public PreferencePredicate getVisibleWhen() {
+        return mVisibleWhen;
+    }
+
+    /**
+     * Enables this preference only while the given condition on the values of other
+     * preferences holds, see {@link PreferencePredicate} for the syntax. The condition is
+     * evaluated again whenever one of the preferences it reads changes its value, and
+     * combines with {@link #setEnabled(boolean)} and {@link #setDependency(String)}.
+     *
+     * @param expression The condition, or null to remove it.
+     * @throws IllegalArgumentException If the condition is malformed.
+     */
+    public void setEnabledWhen(String expression) {
+        final boolean registered = mPredicatesRegistered;
+        unregisterPredicates();
+
+        mEnabledWhen = expression != null ? PreferencePredicate.parse(expression) : null;
+
+        if (mEnabledWhen == null) {
+            setPredicateMet(true);
+        }
+
+        if (registered) {
+            registerPredicates();
+        }
+    }
+
+    /**
+     * Returns the condition set with {@link #setEnabledWhen(String)}.
+     *
+     * @return The condition, or null.
+     */
+    public PreferencePredicate getEnabledWhen() {
+        return mEnabledWhen;
+    }
+
+    /**
+     * Returns the value that conditions of other preferences compare against, see
+     * {@link PreferencePredicate}. Preferences that hold a value should override this
+     * and call {@link #notifyValueChanged()} when the value changes.
+     *
+     * @return The current value, or null if there is none.
+     */
+    protected Object getPredicateValue() {
+        return null;
+    }
+
+    /**
+     * Should be called when the value returned by {@link #getPredicateValue()} has
+     * changed, so that preferences with a condition on it are updated.
+     */
+    protected void notifyValueChanged() {
+        if (mPreferenceManager != null) {
+            mPreferenceManager.onPreferenceValueChanged(this);
+        }
+    }
+
+    private void registerPredicates() {
+        if (mPredicatesRegistered || mPreferenceManager == null
+                || (mVisibleWhen == null && mEnabledWhen == null)) {
+            return;
+        }
+
+        mPredicatesRegistered = true;
+        if (mVisibleWhen != null) {
+            mPreferenceManager.registerPredicateDependent(this, mVisibleWhen);
+        }
+        if (mEnabledWhen != null) {
+            mPreferenceManager.registerPredicateDependent(this, mEnabledWhen);
+        }
+
+        evaluatePredicates();
+    }
+
+    private void unregisterPredicates() {
+        if (!mPredicatesRegistered) {
+            return;
+        }
+
+        mPredicatesRegistered = false;
+        if (mVisibleWhen != null) {
+            mPreferenceManager.unregisterPredicateDependent(this, mVisibleWhen);
+        }
+        if (mEnabledWhen != null) {
+            mPreferenceManager.unregisterPredicateDependent(this, mEnabledWhen);
+        }
+    }
+
+    /**
+     * Evaluates the conditions set with {@link #setVisibleWhen(String)} and
+     * {@link #setEnabledWhen(String)}, updating visibility and enabled state if they changed.
+     */
+    void evaluatePredicates() {
+        if (mVisibleWhen != null) {
+            setVisible(mVisibleWhen.evaluate(mPreferenceManager));
+        }
+
+        setPredicateMet(mEnabledWhen == null || mEnabledWhen.evaluate(mPreferenceManager));
+    }
+
+    private void setPredicateMet(boolean predicateMet) {
+        if (mPredicateMet != predicateMet) {
+            mPredicateMet = predicateMet;
+
+            // Enabled state can change dependent preferences' states, so notify
+            notifyDependencyChange(shouldDisableDependents());
+
+            notifyChanged();
+        }
+    }
+
     /**
      * Returns a unique ID for this Preference.  This ID should be unique across all
      * Preference objects in a hierarchy.
@@ -798,7 +1141,13 @@ public class Preference implements Comparable<Preference> {
      * @param key The key for the preference.
      */
     public void setKey(String key) {
-        mKey = key;
+        if (mPreferenceManager != null) {
+            mPreferenceManager.unregisterPreference(this, mKey);
+            mKey = key;
+            mPreferenceManager.registerPreference(this);
+        } else {
+            mKey = key;
+        }
 
         if (mRequiresKey && !hasKey()) {
             requireKey();
@@ -1028,13 +1377,31 @@ public class Preference implements Comparable<Preference> {
         mListener = listener;
     }
 
+    /**
+     * Returns the internal change listener.
+     *
+     * @return The listener, or null.
+     */
+    final OnPreferenceChangeInternalListener getOnPreferenceChangeInternalListener() {
+        return mListener;
+    }
+
     /**
      * Should be called when the data of this {@link Preference} has changed.
      */
     protected void notifyChanged() {
-        if (mListener != null) {
-            mListener.onPreferenceChange(this);
+        mStateVersion++;
+
+        if (mListener == null) {
+            return;
         }
+
+        // While dependency changes are propagated, changes are reported together at the end
+        if (mPreferenceManager != null && mPreferenceManager.deferChange(this)) {
+            return;
+        }
+
+        mListener.onPreferenceChange(this);
     }
 
     /**
@@ -1048,6 +1415,45 @@ public class Preference implements Comparable<Preference> {
         }
     }
 
+    /**
+     * Returns the {@link PreferenceGroup} this preference has been added to.
+     *
+     * @return The parent group, or null if this preference is not in a group.
+     */
+    public PreferenceGroup getParent() {
+        return mParentGroup;
+    }
+
+    /**
+     * Called by a {@link PreferenceGroup} when this preference is added to or removed
+     * from it.
+     *
+     * @param parentGroup The new parent, or null.
+     */
+    final void assignParent(PreferenceGroup parentGroup) {
+        mParentGroup = parentGroup;
+    }
+
+    /**
+     * Returns additional text, such as the entries of a list, that
+     * {@link PreferenceSearchIndex} should match this preference on. Call
+     * {@link #notifySearchableChanged()} when it changes.
+     *
+     * @return The text, or null.
+     */
+    protected CharSequence[] getSearchableEntries() {
+        return null;
+    }
+
+    /**
+     * Should be called when text indexed by {@link PreferenceSearchIndex} has changed.
+     */
+    protected void notifySearchableChanged() {
+        if (mPreferenceManager != null) {
+            mPreferenceManager.onPreferenceSearchableChange(this);
+        }
+    }
+
     /**
      * Gets the {@link PreferenceManager} that manages this Preference object's tree.
      *
@@ -1068,7 +1474,16 @@ public class Preference implements Comparable<Preference> {
 
         mId = preferenceManager.getNextId();
 
-        dispatchSetInitialValue();
+        preferenceManager.registerPreference(this);
+
+        if (mIconResId != 0 && mIcon == null) {
+            // Decode the icon before the preference is first bound
+            PreferenceIconCache.prewarm(mContext, mIconResId);
+        }
+
+        if (!preferenceManager.deferInitialValue(this)) {
+            dispatchSetInitialValue();
+        }
     }
 
     /**
@@ -1081,6 +1496,7 @@ public class Preference implements Comparable<Preference> {
         // At this point, the hierarchy that this preference is in is connected
         // with all other preferences.
         registerDependency();
+        registerPredicates();
     }
 
     private void registerDependency() {
@@ -1089,6 +1505,7 @@ public class Preference implements Comparable<Preference> {
 
         Preference preference = findPreferenceInHierarchy(mDependencyKey);
         if (preference != null) {
+            checkDependencyCycle(preference);
             preference.registerDependent(this);
         } else {
             throw new IllegalStateException("Dependency \"" + mDependencyKey
@@ -1096,6 +1513,29 @@ public class Preference implements Comparable<Preference> {
         }
     }
 
+    /**
+     * Follows the chain of dependencies starting at the given preference and throws if it
+     * leads back to this preference, or into a cycle between other preferences.
+     */
+    private void checkDependencyCycle(Preference dependency) {
+        final Set<Preference> visited =
+                Collections.newSetFromMap(new IdentityHashMap<Preference, Boolean>());
+        Preference preference = dependency;
+        while (preference != null) {
+            if (preference == this) {
+                throw new IllegalStateException("Dependency \"" + mDependencyKey
+                        + "\" of preference \"" + mKey + "\" creates a cycle");
+            }
+            if (!visited.add(preference)) {
+                throw new IllegalStateException("Dependency \"" + mDependencyKey
+                        + "\" of preference \"" + mKey + "\" leads to a cycle at \""
+                        + preference.mKey + "\"");
+            }
+
+            preference = findPreferenceInHierarchy(preference.mDependencyKey);
+        }
+    }
+
     private void unregisterDependency() {
         if (mDependencyKey != null) {
             final Preference oldDependency = findPreferenceInHierarchy(mDependencyKey);
@@ -1171,8 +1611,33 @@ public class Preference implements Comparable<Preference> {
         }
 
         final int dependentsCount = dependents.size();
-        for (int i = 0; i < dependentsCount; i++) {
-            dependents.get(i).onDependencyChanged(this, disableDependents);
+        final PreferenceMetrics metrics = mPreferenceManager != null
+                ? mPreferenceManager.getPreferenceMetrics() : null;
+        final boolean trace = mPreferenceManager != null
+                && mPreferenceManager.isTraceSectionsEnabled();
+        if (trace) {
+            PreferenceManager.beginTraceSection("Preference dependency", mKey);
+        }
+        final long start = metrics != null ? System.nanoTime() : 0;
+
+        if (mPreferenceManager != null) {
+            mPreferenceManager.beginChangeBatch();
+        }
+        try {
+            for (int i = 0; i < dependentsCount; i++) {
+                dependents.get(i).onDependencyChanged(this, disableDependents);
+            }
+        } finally {
+            if (mPreferenceManager != null) {
+                mPreferenceManager.endChangeBatch();
+            }
+
+            if (metrics != null) {
+                metrics.onDependencyChange(mKey, dependentsCount, System.nanoTime() - start);
+            }
+            if (trace) {
+                PreferenceManager.endTraceSection();
+            }
         }
     }
 
@@ -1252,6 +1717,7 @@ public class Preference implements Comparable<Preference> {
      */
     protected void onPrepareForRemoval() {
         unregisterDependency();
+        unregisterPredicates();
     }
 
     /**
@@ -1269,7 +1735,7 @@ public class Preference implements Comparable<Preference> {
         return mDefaultValue;
     }
 
-    private void dispatchSetInitialValue() {
+    void dispatchSetInitialValue() {
         // By now, we know if we are persistent.
         final boolean shouldPersist = shouldPersist();
         if (!shouldPersist || !getSharedPreferences().contains(mKey)) {
@@ -1303,7 +1769,27 @@ public class Preference implements Comparable<Preference> {
 
     private void tryCommit(@NonNull SharedPreferences.Editor editor) {
         if (mPreferenceManager.shouldCommit()) {
-            SharedPreferencesCompat.EditorCompat.getInstance().apply(editor);
+            final PreferenceMetrics metrics = mPreferenceManager.getPreferenceMetrics();
+            final boolean trace = mPreferenceManager.isTraceSectionsEnabled();
+            if (metrics == null && !trace) {
+                SharedPreferencesCompat.EditorCompat.getInstance().apply(editor);
+                return;
+            }
+
+            if (trace) {
+                PreferenceManager.beginTraceSection("Preference apply", mKey);
+            }
+            final long start = System.nanoTime();
+            try {
+                SharedPreferencesCompat.EditorCompat.getInstance().apply(editor);
+            } finally {
+                if (metrics != null) {
+                    metrics.onApply(mKey, System.nanoTime() - start);
+                }
+                if (trace) {
+                    PreferenceManager.endTraceSection();
+                }
+            }
         }
     }
 
@@ -1533,6 +2019,42 @@ public class Preference implements Comparable<Preference> {
         return mPreferenceManager.getSharedPreferences().getBoolean(mKey, defaultReturnValue);
     }
 
+    /**
+     * Writes the persisted value of this Preference as a single name/value pair, using
+     * {@link #getKey()} as the name. This is only called by
+     * {@link PreferenceManager#exportPreferences(java.io.Writer)} when the value is present
+     * in the {@link android.content.SharedPreferences}.
+     * <p>
+     * Subclasses that persist a value should override this and write the value with
+     * its own type. The default implementation writes nothing.
+     *
+     * @param writer The writer to write the value to.
+     * @return True if a name/value pair was written.
+     * @see #onImportValue(JsonReader, SharedPreferences.Editor)
+     */
+    protected boolean onExportValue(JsonWriter writer) throws IOException {
+        return false;
+    }
+
+    /**
+     * Reads a value previously written by {@link #onExportValue(JsonWriter)} and puts it
+     * into the given editor. Exactly one value must be consumed from the reader. The
+     * editor is applied by {@link PreferenceManager#importPreferences(java.io.Reader)} once
+     * all values have been read.
+     * <p>
+     * The default implementation skips the value.
+     *
+     * @param reader The reader positioned at the value of this Preference.
+     * @param editor The editor to put the value into.
+     * @return True if the value was put into the editor.
+     * @see #onExportValue(JsonWriter)
+     */
+    protected boolean onImportValue(JsonReader reader, SharedPreferences.Editor editor)
+            throws IOException {
+        reader.skipValue();
+        return false;
+    }
+
     @Override
     public String toString() {
         return getFilterableStringBuilder().toString();
@@ -32,12 +32,16 @@ import android.support.v4.app.Fragment;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.util.TypedValue;
 import android.view.ContextThemeWrapper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Shows a hierarchy of {@link Preference} objects as
  * lists. These preferences will
@@ -114,6 +118,15 @@ public abstract class PreferenceFragment extends android.support.v4.app.Fragment
     public static final String ARG_PREFERENCE_ROOT =
             "android.support.v7.preference.PreferenceFragmentCompat.PREFERENCE_ROOT";
 
+    /**
+     * Fragment argument used to specify the key of a {@link Preference} to scroll to once
+     * the preferences are shown.
+     *
+     * @see #scrollToPreference(String)
+     */
+    public static final String ARG_SCROLL_TO_KEY =
+            "rikka.materialpreference.PreferenceFragment.SCROLL_TO_KEY";
+
     private static final String PREFERENCES_TAG = "android:preferences";
 
     private static final String DIALOG_FRAGMENT_TAG =
@@ -133,6 +146,21 @@ public abstract class PreferenceFragment extends android.support.v4.app.Fragment
 
     private DividerDecoration mDividerDecoration;
 
+    /**
+     * Scroll requested before the preferences were bound.
+     */
+    private Runnable mScrollToPreferenceRunnable;
+
+    /**
+     * The current search query, or null when not searching.
+     */
+    private String mSearchQuery;
+
+    /**
+     * The maximum number of preferences shown while searching.
+     */
+    private static final int MAX_SEARCH_RESULTS = 100;
+
     private static final int MSG_BIND_PREFERENCES = 1;
     private Handler mHandler = new Handler() {
         @Override
@@ -218,6 +246,13 @@ public abstract class PreferenceFragment extends android.support.v4.app.Fragment
             rootKey = null;
         }
         onCreatePreferences(savedInstanceState, rootKey);
+
+        if (args != null && savedInstanceState == null) {
+            final String scrollToKey = args.getString(ARG_SCROLL_TO_KEY);
+            if (scrollToKey != null) {
+                scrollToPreference(scrollToKey);
+            }
+        }
     }
 
     /**
@@ -529,10 +564,119 @@ public abstract class PreferenceFragment extends android.support.v4.app.Fragment
     private void bindPreferences() {
         final PreferenceScreen preferenceScreen = getPreferenceScreen();
         if (preferenceScreen != null) {
-            getListView().setAdapter(onCreateAdapter(preferenceScreen));
+            final RecyclerView.Adapter adapter = onCreateAdapter(preferenceScreen);
+            if (mSearchQuery != null && adapter instanceof PreferenceGroupAdapter) {
+                applySearchQuery((PreferenceGroupAdapter) adapter);
+            }
+            getListView().setAdapter(adapter);
             preferenceScreen.onAttached();
         }
         onBindPreferences();
+
+        if (mScrollToPreferenceRunnable != null) {
+            final Runnable runnable = mScrollToPreferenceRunnable;
+            mScrollToPreferenceRunnable = null;
+            runnable.run();
+        }
+    }
+
+    /**
+     * Filters the list to the preferences matching the query, best match first, for
+     * example as the user types in a search field. Misspelled words are tolerated, see
+     * {@link PreferenceSearchIndex#query(String, int)}. Preferences on nested screens are
+     * shown through the item that opens their screen.
+     *
+     * @param query The query, or null or empty to show all preferences again.
+     */
+    public void setSearchQuery(@Nullable String query) {
+        mSearchQuery = TextUtils.isEmpty(query) ? null : query;
+
+        final RecyclerView.Adapter adapter = mList != null ? mList.getAdapter() : null;
+        if (adapter instanceof PreferenceGroupAdapter) {
+            applySearchQuery((PreferenceGroupAdapter) adapter);
+        }
+    }
+
+    /**
+     * Returns the query set with {@link #setSearchQuery(String)}.
+     *
+     * @return The query, or null when not searching.
+     */
+    @Nullable
+    public String getSearchQuery() {
+        return mSearchQuery;
+    }
+
+    private void applySearchQuery(PreferenceGroupAdapter adapter) {
+        final PreferenceScreen preferenceScreen = getPreferenceScreen();
+        if (mSearchQuery == null || preferenceScreen == null) {
+            if (adapter.isFiltered()) {
+                adapter.setFilter(null);
+            }
+            return;
+        }
+
+        final List<PreferenceSearchIndex.Hit> hits =
+                mPreferenceManager.getSearchIndex().query(mSearchQuery, MAX_SEARCH_RESULTS);
+        final List<Preference> preferences = new ArrayList<>(hits.size());
+        for (PreferenceSearchIndex.Hit hit : hits) {
+            // Show preferences on nested screens through the item that opens their screen
+            Preference preference = hit.getPreference();
+            for (PreferenceGroup parent = preference.getParent();
+                    parent != null && parent != preferenceScreen; parent = parent.getParent()) {
+                if (!parent.isOnSameScreenAsChildren()) {
+                    preference = parent;
+                }
+            }
+            preferences.add(preference);
+        }
+        adapter.setFilter(preferences);
+    }
+
+    /**
+     * Scrolls the list to the preference with the given key. If the preferences have not
+     * been bound yet, this happens once they are.
+     *
+     * @param key The key of the preference.
+     * @see #ARG_SCROLL_TO_KEY
+     */
+    public void scrollToPreference(String key) {
+        scrollToPreferenceInternal(null, key);
+    }
+
+    /**
+     * Scrolls the list to the given preference. If the preferences have not been bound
+     * yet, this happens once they are.
+     *
+     * @param preference The preference.
+     */
+    public void scrollToPreference(Preference preference) {
+        scrollToPreferenceInternal(preference, null);
+    }
+
+    private void scrollToPreferenceInternal(final Preference preference, final String key) {
+        final Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                final RecyclerView.Adapter adapter = mList.getAdapter();
+                if (!(adapter instanceof PreferenceGroupAdapter)) {
+                    return;
+                }
+
+                final int position = preference != null
+                        ? ((PreferenceGroupAdapter) adapter).getPreferenceAdapterPosition(preference)
+                        : ((PreferenceGroupAdapter) adapter).getPreferenceAdapterPosition(key);
+                if (position != RecyclerView.NO_POSITION) {
+                    mList.scrollToPosition(position);
+                }
+            }
+        };
+
+        if (mList == null || mList.getAdapter() == null) {
+            mScrollToPreferenceRunnable = runnable;
+        } else {
+            runnable.run();
+        }
     }
 
     /** @hide */
@@ -662,6 +806,17 @@ public abstract class PreferenceFragment extends android.support.v4.app.Fragment
         public abstract boolean shouldDrawDividerAbove(View view, RecyclerView parent);
         public abstract boolean shouldDrawDividerBelow(View view, RecyclerView parent);
 
+        /**
+         * Returns the adapter of the list if it is a {@link PreferenceGroupAdapter}, whose
+         * divider flags are recorded per position when items are bound.
+         */
+        @Nullable
+        protected PreferenceGroupAdapter getPreferenceAdapter(RecyclerView parent) {
+            final RecyclerView.Adapter adapter = parent.getAdapter();
+            return adapter instanceof PreferenceGroupAdapter
+                    ? (PreferenceGroupAdapter) adapter : null;
+        }
+
         public void setDivider(Drawable divider) {
             if (divider != null) {
                 mDividerHeight = divider.getIntrinsicHeight();
@@ -723,17 +878,14 @@ public abstract class PreferenceFragment extends android.support.v4.app.Fragment
 
         @Override
         public boolean shouldDrawDividerBelow(View view, RecyclerView parent) {
-            final PreferenceViewHolder holder =
-                    (PreferenceViewHolder) parent.getChildViewHolder(view);
-            boolean nextAllowed = false;
-            int index = parent.indexOfChild(view);
-            if (index < parent.getChildCount() - 1) {
-                final View nextView = parent.getChildAt(index + 1);
-                final PreferenceViewHolder nextHolder =
-                        (PreferenceViewHolder) parent.getChildViewHolder(nextView);
-                nextAllowed = nextHolder.isDividerAllowedAbove();
+            final PreferenceGroupAdapter adapter = getPreferenceAdapter(parent);
+            if (adapter == null) {
+                return false;
             }
-            return nextAllowed && holder.isDividerAllowedBelow();
+            final int position = parent.getChildAdapterPosition(view);
+            return position != RecyclerView.NO_POSITION
+                    && adapter.isDividerAllowedBelow(position)
+                    && adapter.isDividerAllowedAbove(position + 1);
         }
     }
 
@@ -751,18 +903,14 @@ public abstract class PreferenceFragment extends android.support.v4.app.Fragment
 
         @Override
         public boolean shouldDrawDividerAbove(View view, RecyclerView parent) {
-            PreferenceViewHolder holder =
-                    (PreferenceViewHolder) parent.getChildViewHolder(view);
-
-            boolean nextAllowed = false;
-            int index = parent.indexOfChild(view);
-            if (index < parent.getChildCount() - 1) {
-                View nextView = parent.getChildAt(index + 1);
-                PreferenceViewHolder nextHolder =
-                        (PreferenceViewHolder) parent.getChildViewHolder(nextView);
-                nextAllowed = nextHolder.isDividerAllowedAbove();
+            final PreferenceGroupAdapter adapter = getPreferenceAdapter(parent);
+            if (adapter == null) {
+                return false;
             }
-            return nextAllowed && !holder.isDividerAllowedAbove() && index != 0;
+            final int position = parent.getChildAdapterPosition(view);
+            return position != RecyclerView.NO_POSITION && position != 0
+                    && !adapter.isDividerAllowedAbove(position)
+                    && adapter.isDividerAllowedAbove(position + 1);
         }
 
         @Override
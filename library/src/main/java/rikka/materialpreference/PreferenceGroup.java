@@ -166,6 +166,7 @@ public abstract class PreferenceGroup extends Preference {
             mPreferenceList.add(insertionIndex, preference);
         }
 
+        preference.assignParent(this);
         preference.onAttachedToHierarchy(getPreferenceManager());
 
         if (mAttachedToHierarchy) {
@@ -192,6 +193,14 @@ public abstract class PreferenceGroup extends Preference {
     private boolean removePreferenceInt(Preference preference) {
         synchronized(this) {
             preference.onPrepareForRemoval();
+
+            final PreferenceManager preferenceManager = preference.getPreferenceManager();
+            if (preferenceManager != null) {
+                preferenceManager.unregisterPreferenceTree(preference);
+            }
+            if (preference.getParent() == this) {
+                preference.assignParent(null);
+            }
             return mPreferenceList.remove(preference);
         }
     }
@@ -269,6 +278,17 @@ public abstract class PreferenceGroup extends Preference {
         return true;
     }
 
+    @Override
+    protected void onAttachedToHierarchy(PreferenceManager preferenceManager) {
+        super.onAttachedToHierarchy(preferenceManager);
+
+        // Children added while this group was detached are still indexed by their key
+        final int preferenceCount = getPreferenceCount();
+        for (int i = 0; i < preferenceCount; i++) {
+            preferenceManager.registerPreferenceTree(getPreference(i));
+        }
+    }
+
     @Override
     public void onAttached() {
         super.onAttached();
@@ -294,13 +314,23 @@ public abstract class PreferenceGroup extends Preference {
 
     @Override
     public void notifyDependencyChange(boolean disableDependents) {
-        super.notifyDependencyChange(disableDependents);
-
-        // Child preferences have an implicit dependency on their containing
-        // group. Dispatch dependency change to all contained preferences.
-        final int preferenceCount = getPreferenceCount();
-        for (int i = 0; i < preferenceCount; i++) {
-            getPreference(i).onParentChanged(this, disableDependents);
+        final PreferenceManager preferenceManager = getPreferenceManager();
+        if (preferenceManager != null) {
+            preferenceManager.beginChangeBatch();
+        }
+        try {
+            super.notifyDependencyChange(disableDependents);
+
+            // Child preferences have an implicit dependency on their containing
+            // group. Dispatch dependency change to all contained preferences.
+            final int preferenceCount = getPreferenceCount();
+            for (int i = 0; i < preferenceCount; i++) {
+                getPreference(i).onParentChanged(this, disableDependents);
+            }
+        } finally {
+            if (preferenceManager != null) {
+                preferenceManager.endChangeBatch();
+            }
         }
     }
 
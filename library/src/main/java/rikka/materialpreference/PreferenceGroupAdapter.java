@@ -25,6 +25,9 @@ import android.view.ViewGroup;
 import android.widget.ListView;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -38,6 +41,22 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
 
     private static final String TAG = "PreferenceGroupAdapter";
 
+    /**
+     * Render mode that inflates the layout resource of each preference.
+     *
+     * @see #setRenderMode(int)
+     */
+    public static final int RENDER_MODE_INFLATE = 0;
+
+    /**
+     * Render mode that shows preferences using the default layout as a single
+     * {@link PreferenceRowView}, which draws the icon, title and summary itself. Preferences
+     * with other layouts are still inflated.
+     *
+     * @see #setRenderMode(int)
+     */
+    public static final int RENDER_MODE_FLAT = 1;
+
     /**
      * The group that we are providing data from.
      */
@@ -56,14 +75,33 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
      */
     private List<Preference> mPreferenceListInternal;
 
+    /**
+     * The preferences to show instead of the whole hierarchy, or null.
+     *
+     * @see #setFilter(List)
+     */
+    private List<Preference> mFilter;
+
     /**
      * List of unique Preference and its subclasses' names and layouts.
      */
     private List<PreferenceLayout> mPreferenceLayouts;
 
+    /**
+     * Whether dividers are allowed above and below the item at each adapter position, as
+     * last bound. Positions that have not been bound allow no dividers.
+     *
+     * @see #isDividerAllowedAbove(int)
+     * @see #isDividerAllowedBelow(int)
+     */
+    private final BitSet mDividerAllowedAbove = new BitSet();
+    private final BitSet mDividerAllowedBelow = new BitSet();
+
 
     private PreferenceLayout mTempPreferenceLayout = new PreferenceLayout();
 
+    private int mRenderMode = RENDER_MODE_INFLATE;
+
     private volatile boolean mIsSyncing = false;
 
     private Handler mHandler = new Handler();
@@ -78,6 +116,7 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
         private int resId;
         private int widgetResId;
         private String name;
+        private boolean flat;
 
         public PreferenceLayout() {}
 
@@ -85,6 +124,7 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
             resId = other.resId;
             widgetResId = other.widgetResId;
             name = other.name;
+            flat = other.flat;
         }
 
         @Override
@@ -95,6 +135,7 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
             final PreferenceLayout other = (PreferenceLayout) o;
             return resId == other.resId
                     && widgetResId == other.widgetResId
+                    && flat == other.flat
                     && TextUtils.equals(name, other.name);
         }
 
@@ -104,6 +145,7 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
             result = 31 * result + resId;
             result = 31 * result + widgetResId;
             result = 31 * result + name.hashCode();
+            result = 31 * result + (flat ? 1 : 0);
             return result;
         }
     }
@@ -131,26 +173,131 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
             mIsSyncing = true;
         }
 
+        final PreferenceManager preferenceManager = mPreferenceGroup.getPreferenceManager();
+        final PreferenceMetrics metrics = preferenceManager != null
+                ? preferenceManager.getPreferenceMetrics() : null;
+        final boolean trace = preferenceManager != null
+                && preferenceManager.isTraceSectionsEnabled();
+        if (trace) {
+            PreferenceManager.beginTraceSection("Preference adapter sync", null);
+        }
+        final long start = metrics != null ? System.nanoTime() : 0;
+        long flattenNanos = 0;
+
         List<Preference> newPreferenceList = new ArrayList<>(mPreferenceListInternal.size());
         flattenPreferenceGroup(newPreferenceList, mPreferenceGroup);
         mPreferenceListInternal = newPreferenceList;
 
-        mPreferenceList = new ArrayList<>(mPreferenceListInternal.size());
-        // Copy only the visible preferences to the active list
-        for (final Preference preference : mPreferenceListInternal) {
-            if (preference.isVisible()) {
-                mPreferenceList.add(preference);
-            }
+        if (metrics != null) {
+            flattenNanos = System.nanoTime() - start;
         }
 
+        mPreferenceList = createVisiblePreferenceList();
+
+        clearDividerFlags();
         notifyDataSetChanged();
 
+        if (preferenceManager != null && mRenderMode == RENDER_MODE_FLAT) {
+            preferenceManager.getTextLayoutPrecomputer().precompute(mPreferenceList);
+        }
+
+        if (metrics != null) {
+            metrics.onAdapterSync(newPreferenceList.size(), flattenNanos,
+                    System.nanoTime() - start);
+        }
+        if (trace) {
+            PreferenceManager.endTraceSection();
+        }
+
         synchronized(this) {
             mIsSyncing = false;
             notifyAll();
         }
     }
 
+    /**
+     * Copies the visible preferences, or the visible preferences of the filter, to a new
+     * active list.
+     */
+    private List<Preference> createVisiblePreferenceList() {
+        if (mFilter == null) {
+            final List<Preference> preferences =
+                    new ArrayList<>(mPreferenceListInternal.size());
+            for (final Preference preference : mPreferenceListInternal) {
+                if (preference.isVisible()) {
+                    preferences.add(preference);
+                }
+            }
+            return preferences;
+        }
+
+        final HashSet<Preference> shown = new HashSet<>(mPreferenceListInternal);
+        final List<Preference> preferences = new ArrayList<>(mFilter.size());
+        for (final Preference preference : mFilter) {
+            // Remove as we go so that duplicates are only shown once
+            if (preference.isVisible() && shown.remove(preference)) {
+                preferences.add(preference);
+            }
+        }
+        return preferences;
+    }
+
+    /**
+     * Sets how preferences are rendered. {@link #RENDER_MODE_FLAT} uses fewer views per row,
+     * which makes rows cheaper to measure, lay out and draw. Override
+     * {@link PreferenceFragment#onCreateAdapter(PreferenceScreen)} to set it before the list
+     * is first shown.
+     *
+     * @param renderMode {@link #RENDER_MODE_INFLATE} or {@link #RENDER_MODE_FLAT}.
+     */
+    public void setRenderMode(int renderMode) {
+        if (renderMode != RENDER_MODE_INFLATE && renderMode != RENDER_MODE_FLAT) {
+            throw new IllegalArgumentException("Unknown render mode " + renderMode);
+        }
+        if (mRenderMode != renderMode) {
+            mRenderMode = renderMode;
+            final PreferenceManager preferenceManager = mPreferenceGroup.getPreferenceManager();
+            if (renderMode == RENDER_MODE_INFLATE && preferenceManager != null) {
+                // Inflated rows lay out their text themselves
+                preferenceManager.getTextLayoutPrecomputer().clear();
+            }
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Returns how preferences are rendered.
+     *
+     * @return {@link #RENDER_MODE_INFLATE} or {@link #RENDER_MODE_FLAT}.
+     * @see #setRenderMode(int)
+     */
+    public int getRenderMode() {
+        return mRenderMode;
+    }
+
+    /**
+     * Shows only the given preferences, in the given order, for example the results of a
+     * search. Preferences that this adapter does not show, such as the children of nested
+     * screens, are left out.
+     *
+     * @param preferences The preferences to show, or null to show the whole hierarchy again.
+     */
+    public void setFilter(List<Preference> preferences) {
+        mFilter = preferences != null ? new ArrayList<>(preferences) : null;
+        mPreferenceList = createVisiblePreferenceList();
+        clearDividerFlags();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Returns whether a filter set with {@link #setFilter(List)} is active.
+     *
+     * @return Whether the adapter is filtered.
+     */
+    public boolean isFiltered() {
+        return mFilter != null;
+    }
+
     private void flattenPreferenceGroup(List<Preference> preferences, PreferenceGroup group) {
         group.sortPreferences();
 
@@ -183,6 +330,7 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
         pl.name = preference.getClass().getName();
         pl.resId = preference.getLayoutResource();
         pl.widgetResId = preference.getWidgetLayoutResource();
+        pl.flat = mRenderMode == RENDER_MODE_FLAT && pl.resId == R.layout.preference_material;
         return pl;
     }
 
@@ -203,13 +351,62 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
         return mPreferenceList.get(position);
     }
 
+    /**
+     * Returns the adapter position of the preference with the given key.
+     *
+     * @param key The key of the preference.
+     * @return The position, or {@link RecyclerView#NO_POSITION} if it is not shown.
+     */
+    public int getPreferenceAdapterPosition(String key) {
+        final int size = mPreferenceList.size();
+        for (int i = 0; i < size; i++) {
+            if (TextUtils.equals(key, mPreferenceList.get(i).getKey())) {
+                return i;
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * Returns the adapter position of the given preference.
+     *
+     * @param preference The preference.
+     * @return The position, or {@link RecyclerView#NO_POSITION} if it is not shown.
+     */
+    public int getPreferenceAdapterPosition(Preference preference) {
+        final int position = mPreferenceList.indexOf(preference);
+        return position >= 0 ? position : RecyclerView.NO_POSITION;
+    }
+
     public long getItemId(int position) {
         if (position < 0 || position >= getItemCount()) return ListView.INVALID_ROW_ID;
         return this.getItem(position).getId();
     }
 
     public void onPreferenceChange(Preference preference) {
-        notifyDataSetChanged();
+        final int position = mPreferenceList.indexOf(preference);
+        if (position >= 0) {
+            notifyItemChanged(position);
+        }
+    }
+
+    @Override
+    public void onPreferencesChange(Collection<Preference> preferences) {
+        final HashSet<Preference> changed = new HashSet<>(preferences);
+
+        // Notify each run of adjacent changed items as one range
+        final int count = mPreferenceList.size();
+        int start = -1;
+        for (int i = 0; i <= count; i++) {
+            if (i < count && changed.contains(mPreferenceList.get(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                notifyItemRangeChanged(start, i - start);
+                start = -1;
+            }
+        }
     }
 
     public void onPreferenceHierarchyChange(Preference preference) {
@@ -219,21 +416,35 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
 
     @Override
     public void onPreferenceVisibilityChange(Preference preference) {
+        if (mFilter != null) {
+            mPreferenceList = createVisiblePreferenceList();
+            clearDividerFlags();
+            notifyDataSetChanged();
+            return;
+        }
+
         if (preference.isVisible()) {
             // The preference has become visible, we need to add it in the correct location.
 
             // Index (inferred) in mPreferenceList of the item preceding the newly visible pref
             int previousVisibleIndex = -1;
+            boolean found = false;
             for (final Preference pref : mPreferenceListInternal) {
                 if (preference.equals(pref)) {
+                    found = true;
                     break;
                 }
                 if (pref.isVisible()) {
                     previousVisibleIndex++;
                 }
             }
+            if (!found) {
+                // Not shown by this adapter
+                return;
+            }
             // Insert this preference into the active list just after the previous visible entry
             mPreferenceList.add(previousVisibleIndex + 1, preference);
+            shiftDividerFlags(previousVisibleIndex + 1, 1);
 
             notifyItemInserted(previousVisibleIndex + 1);
         } else {
@@ -246,7 +457,12 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
                     break;
                 }
             }
+            if (removalIndex == listSize) {
+                // Not shown by this adapter
+                return;
+            }
             mPreferenceList.remove(removalIndex);
+            shiftDividerFlags(removalIndex + 1, -1);
             notifyItemRemoved(removalIndex);
         }
     }
@@ -272,7 +488,14 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
         final PreferenceLayout pl = mPreferenceLayouts.get(viewType);
         final LayoutInflater inflater = LayoutInflater.from(parent.getContext());
 
-        final View view = inflater.inflate(pl.resId, parent, false);
+        final View view;
+        if (pl.flat) {
+            view = new PreferenceRowView(parent.getContext());
+            view.setLayoutParams(new RecyclerView.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        } else {
+            view = inflater.inflate(pl.resId, parent, false);
+        }
 
         final ViewGroup widgetFrame = (ViewGroup) view.findViewById(android.R.id.widget_frame);
         if (widgetFrame != null) {
@@ -289,6 +512,91 @@ public class PreferenceGroupAdapter extends RecyclerView.Adapter<PreferenceViewH
     @Override
     public void onBindViewHolder(PreferenceViewHolder holder, int position) {
         final Preference preference = getItem(position);
-        preference.onBindViewHolder(holder);
+
+        final PreferenceManager preferenceManager = preference.getPreferenceManager();
+        final PreferenceMetrics metrics = preferenceManager != null
+                ? preferenceManager.getPreferenceMetrics() : null;
+        final boolean trace = preferenceManager != null
+                && preferenceManager.isTraceSectionsEnabled();
+        if (metrics == null && !trace) {
+            preference.onBindViewHolder(holder);
+        } else {
+            if (trace) {
+                PreferenceManager.beginTraceSection("Preference bind", preference.getKey());
+            }
+            final long start = System.nanoTime();
+            try {
+                preference.onBindViewHolder(holder);
+            } finally {
+                if (metrics != null) {
+                    metrics.onBind(preference.getLayoutResource(),
+                            preference.getWidgetLayoutResource(), System.nanoTime() - start);
+                }
+                if (trace) {
+                    PreferenceManager.endTraceSection();
+                }
+            }
+        }
+
+        mDividerAllowedAbove.set(position, holder.isDividerAllowedAbove());
+        mDividerAllowedBelow.set(position, holder.isDividerAllowedBelow());
+    }
+
+    /**
+     * Returns whether a divider is allowed above the item at the given position, as set by
+     * {@link PreferenceViewHolder#setDividerAllowedAbove(boolean)} when it was last bound.
+     *
+     * @param position The adapter position.
+     * @return Whether a divider is allowed, false if the item has not been bound.
+     */
+    public boolean isDividerAllowedAbove(int position) {
+        return position >= 0 && mDividerAllowedAbove.get(position);
+    }
+
+    /**
+     * Returns whether a divider is allowed below the item at the given position, as set by
+     * {@link PreferenceViewHolder#setDividerAllowedBelow(boolean)} when it was last bound.
+     *
+     * @param position The adapter position.
+     * @return Whether a divider is allowed, false if the item has not been bound.
+     */
+    public boolean isDividerAllowedBelow(int position) {
+        return position >= 0 && mDividerAllowedBelow.get(position);
+    }
+
+    private void clearDividerFlags() {
+        mDividerAllowedAbove.clear();
+        mDividerAllowedBelow.clear();
+    }
+
+    /**
+     * Moves the divider flags of the positions from {@code start} on by {@code delta}, after
+     * an item was inserted or removed. Inserted positions are left unset until bound.
+     */
+    private void shiftDividerFlags(int start, int delta) {
+        shiftBits(mDividerAllowedAbove, start, delta);
+        shiftBits(mDividerAllowedBelow, start, delta);
+    }
+
+    private static void shiftBits(BitSet bits, int start, int delta) {
+        final int length = bits.length();
+        final int from = Math.min(start, start + delta);
+        if (start >= length) {
+            if (from < length) {
+                bits.clear(from, length);
+            }
+            return;
+        }
+
+        final BitSet tail = bits.get(start, length);
+        bits.clear(from, length);
+        for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+            bits.set(start + delta + i);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(PreferenceViewHolder holder) {
+        holder.onRecycled();
     }
 }
@@ -0,0 +1,106 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.util.LruCache;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Caches the icons of preferences loaded from resources, so screens that show the same icon
+ * many times decode it once.
+ * <p>
+ * Entries are keyed by resource ID and theme and hold the {@link Drawable.ConstantState} of
+ * the icon. Every lookup returns a new drawable sharing that state, so the bitmap or path
+ * data is shared while bounds and callbacks stay per view.
+ */
+final class PreferenceIconCache {
+
+    private static final int MAX_ENTRIES = 64;
+
+    private static final class Key {
+        final int resId;
+        final WeakReference<Resources.Theme> theme;
+        final int themeHash;
+
+        Key(int resId, Resources.Theme theme) {
+            this.resId = resId;
+            this.theme = new WeakReference<>(theme);
+            this.themeHash = System.identityHashCode(theme);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            if (resId != key.resId || themeHash != key.themeHash) {
+                return false;
+            }
+            final Resources.Theme theme = this.theme.get();
+            return theme != null && theme == key.theme.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * resId + themeHash;
+        }
+    }
+
+    private static final LruCache<Key, Drawable.ConstantState> sCache =
+            new LruCache<>(MAX_ENTRIES);
+
+    private PreferenceIconCache() {
+    }
+
+    /**
+     * Returns the icon with the given resource ID, loading it if it is not cached.
+     *
+     * @param context The context whose resources and theme load the icon.
+     * @param resId The resource ID of the icon.
+     * @return The icon, or null if it cannot be loaded.
+     */
+    static Drawable get(Context context, int resId) {
+        final Key key = new Key(resId, context.getTheme());
+        final Drawable.ConstantState state = sCache.get(key);
+        if (state != null) {
+            return state.newDrawable(context.getResources());
+        }
+
+        final Drawable drawable = ContextCompat.getDrawable(context, resId);
+        if (drawable != null && drawable.getConstantState() != null) {
+            sCache.put(key, drawable.getConstantState());
+        }
+        return drawable;
+    }
+
+    /**
+     * Loads the icon with the given resource ID on the {@link PreferenceWorker} thread,
+     * unless it is already cached.
+     *
+     * @param context The context whose resources and theme load the icon.
+     * @param resId The resource ID of the icon.
+     */
+    static void prewarm(final Context context, final int resId) {
+        if (sCache.get(new Key(resId, context.getTheme())) != null) {
+            return;
+        }
+
+        PreferenceWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    get(context, resId);
+                } catch (Resources.NotFoundException e) {
+                    // Reported when the icon is bound on the main thread
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,194 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.ShapeDrawable;
+import android.support.v4.graphics.BitmapCompat;
+import android.support.v4.util.LruCache;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.View;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes {@link PreferenceIconSource}s in the background and keeps the decoded bitmaps in
+ * a cache bounded by memory size.
+ */
+final class PreferenceIconLoader {
+
+    private static final String TAG = "PreferenceIconLoader";
+
+    private static final LruCache<String, Bitmap> sCache = new LruCache<String, Bitmap>(
+            (int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE)) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return BitmapCompat.getAllocationByteCount(value);
+        }
+    };
+
+    /**
+     * A pending load into an image view or row.
+     */
+    static final class Request implements Runnable {
+        private final Context mContext;
+        private final View mView;
+        private final PreferenceIconSource mSource;
+        private final int mMaxWidth;
+        private final int mMaxHeight;
+        private Future<?> mFuture;
+        private volatile boolean mCancelled;
+        private boolean mFinished;
+
+        private Request(View view, PreferenceIconSource source, int maxWidth,
+                int maxHeight) {
+            mContext = view.getContext().getApplicationContext();
+            mView = view;
+            mSource = source;
+            mMaxWidth = maxWidth;
+            mMaxHeight = maxHeight;
+        }
+
+        /**
+         * Returns whether this request is still loading the given source.
+         */
+        boolean isLoading(PreferenceIconSource source) {
+            return !mFinished && !mCancelled && mSource.getKey().equals(source.getKey());
+        }
+
+        /**
+         * Cancels this request. The image view is left untouched.
+         */
+        void cancel() {
+            mCancelled = true;
+            mFuture.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+
+            Bitmap bitmap = null;
+            try {
+                bitmap = mSource.decode(mContext, mMaxWidth, mMaxHeight);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Cannot load icon " + mSource.getKey(), e);
+            }
+
+            if (bitmap != null) {
+                sCache.put(cacheKey(mSource, mMaxWidth, mMaxHeight), bitmap);
+            }
+
+            final Bitmap result = bitmap;
+            PreferenceWorker.postToMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    mFinished = true;
+                    if (!mCancelled && result != null) {
+                        setIcon(mView, new BitmapDrawable(mView.getResources(), result));
+                    }
+                }
+            });
+        }
+    }
+
+    private PreferenceIconLoader() {
+    }
+
+    private static String cacheKey(PreferenceIconSource source, int maxWidth, int maxHeight) {
+        return source.getKey() + '@' + maxWidth + 'x' + maxHeight;
+    }
+
+    /**
+     * Shows the icon of a source in an image view or a {@link PreferenceRowView}, from the
+     * cache if possible.
+     *
+     * @param view The image view or row.
+     * @param source The icon source.
+     * @param placeholder The drawable shown while the icon loads, or null to leave the
+     *                    space of the icon empty.
+     * @param pending The request currently loading into the view, or null.
+     * @return The request now loading into the view, or null if the icon was cached.
+     */
+    static Request load(View view, PreferenceIconSource source, Drawable placeholder,
+            Request pending) {
+        final int maxWidth = getMaxWidth(view);
+        final int maxHeight = getMaxHeight(view);
+
+        final Bitmap cached = sCache.get(cacheKey(source, maxWidth, maxHeight));
+        if (cached != null) {
+            if (pending != null) {
+                pending.cancel();
+            }
+            setIcon(view, new BitmapDrawable(view.getResources(), cached));
+            return null;
+        }
+
+        if (pending != null) {
+            if (pending.isLoading(source)) {
+                return pending;
+            }
+            pending.cancel();
+        }
+
+        if (placeholder == null && (view instanceof PreferenceRowView
+                || view instanceof PreferenceImageView
+                && ((PreferenceImageView) view).getMaxWidth() != Integer.MAX_VALUE
+                && ((PreferenceImageView) view).getMaxHeight() != Integer.MAX_VALUE)) {
+            // Keep the space of the icon so the item does not change size when it loads
+            final ShapeDrawable empty = new ShapeDrawable();
+            empty.getPaint().setColor(Color.TRANSPARENT);
+            empty.setIntrinsicWidth(maxWidth);
+            empty.setIntrinsicHeight(maxHeight);
+            placeholder = empty;
+        }
+        setIcon(view, placeholder);
+
+        final Request request = new Request(view, source, maxWidth, maxHeight);
+        request.mFuture = PreferenceWorker.decode(request);
+        return request;
+    }
+
+    private static void setIcon(View view, Drawable icon) {
+        if (view instanceof PreferenceRowView) {
+            ((PreferenceRowView) view).setIcon(icon);
+        } else {
+            ((ImageView) view).setImageDrawable(icon);
+        }
+    }
+
+    private static int getMaxWidth(View view) {
+        if (view instanceof PreferenceRowView) {
+            return ((PreferenceRowView) view).getIconMaxSize();
+        }
+        if (view instanceof PreferenceImageView) {
+            final int maxWidth = ((PreferenceImageView) view).getMaxWidth();
+            if (maxWidth != Integer.MAX_VALUE) {
+                return maxWidth;
+            }
+        }
+        final DisplayMetrics metrics = view.getResources().getDisplayMetrics();
+        return Math.min(metrics.widthPixels, metrics.heightPixels);
+    }
+
+    private static int getMaxHeight(View view) {
+        if (view instanceof PreferenceRowView) {
+            return ((PreferenceRowView) view).getIconMaxSize();
+        }
+        if (view instanceof PreferenceImageView) {
+            final int maxHeight = ((PreferenceImageView) view).getMaxHeight();
+            if (maxHeight != Integer.MAX_VALUE) {
+                return maxHeight;
+            }
+        }
+        final DisplayMetrics metrics = view.getResources().getDisplayMetrics();
+        return Math.min(metrics.widthPixels, metrics.heightPixels);
+    }
+}
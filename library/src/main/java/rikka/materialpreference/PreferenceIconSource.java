@@ -0,0 +1,144 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A bitmap icon that is decoded in the background, see
+ * {@link Preference#setIconSource(PreferenceIconSource)}.
+ * <p>
+ * Use {@link #fromUri(Uri)} or {@link #fromFile(File)}, or subclass it to supply bitmaps
+ * from elsewhere, such as package icons or avatars.
+ */
+public abstract class PreferenceIconSource {
+
+    /**
+     * Returns a key that identifies the icon. Sources with the same key share decoded
+     * bitmaps.
+     *
+     * @return The key.
+     */
+    public abstract String getKey();
+
+    /**
+     * Decodes the icon. This is called on a background thread.
+     * <p>
+     * The bitmap should be no larger than needed to fill the given bounds, see
+     * {@link #calculateInSampleSize(int, int, int, int)}.
+     *
+     * @param context The context of the preference.
+     * @param maxWidth The maximum width the icon is shown at, in pixels.
+     * @param maxHeight The maximum height the icon is shown at, in pixels.
+     * @return The bitmap, or null if there is no icon.
+     * @throws IOException If the icon cannot be read.
+     */
+    public abstract Bitmap decode(Context context, int maxWidth, int maxHeight)
+            throws IOException;
+
+    /**
+     * Returns a source that decodes the image at a content, file or resource URI.
+     *
+     * @param uri The URI of the image.
+     * @return The source.
+     */
+    public static PreferenceIconSource fromUri(final Uri uri) {
+        return new StreamSource() {
+            @Override
+            public String getKey() {
+                return uri.toString();
+            }
+
+            @Override
+            InputStream open(Context context) throws IOException {
+                final InputStream in = context.getContentResolver().openInputStream(uri);
+                if (in == null) {
+                    throw new IOException("Cannot open " + uri);
+                }
+                return in;
+            }
+        };
+    }
+
+    /**
+     * Returns a source that decodes an image file.
+     *
+     * @param file The image file.
+     * @return The source.
+     */
+    public static PreferenceIconSource fromFile(final File file) {
+        return new StreamSource() {
+            @Override
+            public String getKey() {
+                return file.getAbsolutePath();
+            }
+
+            @Override
+            InputStream open(Context context) throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+    }
+
+    /**
+     * Returns the largest power of two sample size that keeps an image of the given size at
+     * least as large as the given bounds, for {@link BitmapFactory.Options#inSampleSize}.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param maxWidth The maximum width the image is shown at.
+     * @param maxHeight The maximum height the image is shown at.
+     * @return The sample size, at least 1. It is 1 if the bounds are not positive.
+     */
+    public static int calculateInSampleSize(int width, int height, int maxWidth, int maxHeight) {
+        if (maxWidth <= 0 || maxHeight <= 0) {
+            // View not measured yet, every sample size would fit
+            return 1;
+        }
+
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= maxWidth && height / (sampleSize * 2) >= maxHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * A source that decodes a stream that can be opened more than once.
+     */
+    private abstract static class StreamSource extends PreferenceIconSource {
+
+        abstract InputStream open(Context context) throws IOException;
+
+        @Override
+        public Bitmap decode(Context context, int maxWidth, int maxHeight) throws IOException {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decodeStream(context, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                throw new IOException("Cannot decode " + getKey());
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                    maxWidth, maxHeight);
+            return decodeStream(context, options);
+        }
+
+        private Bitmap decodeStream(Context context, BitmapFactory.Options options)
+                throws IOException {
+            final InputStream in = open(context);
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -109,11 +109,27 @@ class PreferenceInflater {
      *         XML file.
      */
     public Preference inflate(int resource, @Nullable PreferenceGroup root) {
+        final PreferenceMetrics metrics = mPreferenceManager != null
+                ? mPreferenceManager.getPreferenceMetrics() : null;
+        final boolean trace = mPreferenceManager != null
+                && mPreferenceManager.isTraceSectionsEnabled();
+        if (trace) {
+            PreferenceManager.beginTraceSection("Preference inflate", null);
+        }
+        final long start = metrics != null ? System.nanoTime() : 0;
+
         XmlResourceParser parser = getContext().getResources().getXml(resource);
         try {
             return inflate(parser, root);
         } finally {
             parser.close();
+
+            if (metrics != null) {
+                metrics.onInflate(resource, System.nanoTime() - start);
+            }
+            if (trace) {
+                PreferenceManager.endTraceSection();
+            }
         }
     }
 
@@ -249,7 +265,31 @@ class PreferenceInflater {
 
             Object[] args = mConstructorArgs;
             args[1] = attrs;
-            return (Preference) constructor.newInstance(args);
+
+            final PreferenceMetrics metrics = mPreferenceManager != null
+                    ? mPreferenceManager.getPreferenceMetrics() : null;
+            final boolean trace = mPreferenceManager != null
+                    && mPreferenceManager.isTraceSectionsEnabled();
+            if (metrics == null && !trace) {
+                return (Preference) constructor.newInstance(args);
+            }
+
+            final Class<? extends Preference> clazz = constructor.getDeclaringClass();
+            if (trace) {
+                PreferenceManager.beginTraceSection("Preference construct",
+                        clazz.getSimpleName());
+            }
+            final long start = System.nanoTime();
+            try {
+                return (Preference) constructor.newInstance(args);
+            } finally {
+                if (metrics != null) {
+                    metrics.onPreferenceConstructed(clazz, System.nanoTime() - start);
+                }
+                if (trace) {
+                    PreferenceManager.endTraceSection();
+                }
+            }
 
         } catch (ClassNotFoundException e) {
             // If loadClass fails, we should propagate the exception.
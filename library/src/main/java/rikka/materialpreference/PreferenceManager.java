@@ -20,9 +20,20 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.support.v4.content.SharedPreferencesCompat;
-
+import android.support.v4.os.TraceCompat;
+import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Used to help create {@link Preference} hierarchies
@@ -39,6 +50,18 @@ public class PreferenceManager {
 
     public static final String KEY_HAS_SET_DEFAULT_VALUES = "_has_set_default_values";
 
+    /**
+     * The key under which the version of the last applied {@link PreferenceMigration} is
+     * stored, in the same SharedPreferences file as the migrated values.
+     */
+    public static final String KEY_MIGRATION_VERSION = "_migration_version";
+
+    /**
+     * Whether a {@link PreferenceManager} starts loading its SharedPreferences file in the
+     * background as soon as the file is known.
+     */
+    private static volatile boolean sPrewarmEnabled = true;
+
     /**
      * The context to use. This should always be set.
      */
@@ -57,6 +80,18 @@ public class PreferenceManager {
      */
     private SharedPreferences mSharedPreferences;
 
+    /**
+     * Snapshot of the shared preferences, used while resolving initial values after
+     * inflation.
+     */
+    private SharedPreferences mSnapshotSharedPreferences;
+
+    /**
+     * Preferences whose initial value is resolved once inflation is done, or null when
+     * not inflating.
+     */
+    private List<Preference> mPendingInitialValues;
+
     /**
      * If in no-commit mode, the shared editor to give out (which will be
      * committed when exiting no-commit mode).
@@ -86,6 +121,42 @@ public class PreferenceManager {
      */
     private PreferenceScreen mPreferenceScreen;
 
+    /**
+     * The preferences in the hierarchy, by key.
+     */
+    private final HashMap<String, Preference> mPreferencesByKey = new HashMap<>();
+
+    /**
+     * Keys used by more than one preference, whose index entry must be looked up again in
+     * the hierarchy when the indexed preference goes away.
+     */
+    private final HashSet<String> mSharedKeys = new HashSet<>();
+
+    /**
+     * Created on first use by {@link #getSearchIndex()}.
+     */
+    private PreferenceSearchIndex mSearchIndex;
+
+    private final TextLayoutPrecomputer mTextLayoutPrecomputer = new TextLayoutPrecomputer();
+
+    /**
+     * Created on first use by {@link #getSimpleMenuPopup(Context)}.
+     */
+    private SimpleMenuPopup mSimpleMenuPopup;
+
+    /**
+     * How many dependency changes are being propagated. While greater than 0, changed
+     * preferences are collected in {@link #mBatchedChanges}.
+     */
+    private int mChangeBatchDepth;
+
+    private final LinkedHashSet<Preference> mBatchedChanges = new LinkedHashSet<>();
+
+    /**
+     * The preferences with a {@link PreferencePredicate}, by the keys the predicate reads.
+     */
+    private final HashMap<String, List<Preference>> mPredicateDependents = new HashMap<>();
+
     /**
      * The default package that will be searched for classes to construct
      */
@@ -95,6 +166,9 @@ public class PreferenceManager {
     private OnDisplayPreferenceDialogListener mOnDisplayPreferenceDialogListener;
     private OnNavigateToScreenListener mOnNavigateToScreenListener;
 
+    private PreferenceMetrics mPreferenceMetrics;
+    private boolean mTraceSectionsEnabled;
+
     /**
      * @hide
      */
@@ -122,17 +196,184 @@ public class PreferenceManager {
         // Block commits
         setNoCommit(true);
 
-        final PreferenceInflater inflater = new PreferenceInflater(context, this);
-        inflater.setDefaultPackages(getDefaultPackages());
-        rootPreferences = (PreferenceScreen) inflater.inflate(resId, rootPreferences);
-        rootPreferences.onAttachedToHierarchy(this);
+        // A new hierarchy is not attached yet, so nothing reads its values before they
+        // are resolved in bulk below
+        final boolean deferInitialValues = rootPreferences == null;
+        if (deferInitialValues) {
+            mPendingInitialValues = new ArrayList<>();
+        }
 
-        // Unblock commits
-        setNoCommit(false);
+        try {
+            final PreferenceInflater inflater = new PreferenceInflater(context, this);
+            inflater.setDefaultPackages(getDefaultPackages());
+            rootPreferences = (PreferenceScreen) inflater.inflate(resId, rootPreferences);
+            rootPreferences.onAttachedToHierarchy(this);
+
+            if (deferInitialValues) {
+                final List<Preference> pending = mPendingInitialValues;
+                mPendingInitialValues = null;
+                dispatchSetInitialValues(pending);
+            }
+        } finally {
+            // Preferences attached after a failed inflation must not be deferred forever
+            mPendingInitialValues = null;
+
+            // Unblock commits
+            setNoCommit(false);
+        }
 
         return rootPreferences;
     }
 
+    /**
+     * Sets the initial values of the given preferences, reading every persisted value from
+     * a single snapshot of the shared preferences.
+     */
+    private void dispatchSetInitialValues(List<Preference> preferences) {
+        mSnapshotSharedPreferences = new SnapshotSharedPreferences(getSharedPreferences());
+        try {
+            final int count = preferences.size();
+            for (int i = 0; i < count; i++) {
+                preferences.get(i).dispatchSetInitialValue();
+            }
+        } finally {
+            mSnapshotSharedPreferences = null;
+        }
+    }
+
+    /**
+     * Called by a preference when it is attached to the hierarchy. While inflating, its
+     * initial value is set once the whole hierarchy has been inflated.
+     *
+     * @param preference The preference being attached.
+     * @return Whether setting the initial value was deferred.
+     */
+    boolean deferInitialValue(Preference preference) {
+        if (mPendingInitialValues == null) {
+            return false;
+        }
+
+        mPendingInitialValues.add(preference);
+        return true;
+    }
+
+    /**
+     * Starts collecting preference changes instead of reporting them one by one. Calls can
+     * be nested, changes are reported when the outermost batch ends.
+     *
+     * @see #endChangeBatch()
+     */
+    void beginChangeBatch() {
+        mChangeBatchDepth++;
+    }
+
+    /**
+     * Ends a batch started by {@link #beginChangeBatch()}. When the outermost batch ends,
+     * each listener is told once about all the preferences that changed.
+     */
+    void endChangeBatch() {
+        if (--mChangeBatchDepth > 0 || mBatchedChanges.isEmpty()) {
+            return;
+        }
+
+        final HashMap<Preference.OnPreferenceChangeInternalListener, List<Preference>> changes =
+                new HashMap<>();
+        for (Preference preference : mBatchedChanges) {
+            final Preference.OnPreferenceChangeInternalListener listener =
+                    preference.getOnPreferenceChangeInternalListener();
+            if (listener == null) {
+                continue;
+            }
+
+            List<Preference> preferences = changes.get(listener);
+            if (preferences == null) {
+                preferences = new ArrayList<>();
+                changes.put(listener, preferences);
+            }
+            preferences.add(preference);
+        }
+        mBatchedChanges.clear();
+
+        for (Map.Entry<Preference.OnPreferenceChangeInternalListener, List<Preference>>
+                entry : changes.entrySet()) {
+            entry.getKey().onPreferencesChange(entry.getValue());
+        }
+    }
+
+    /**
+     * Called by a preference when it has changed.
+     *
+     * @param preference The preference that changed.
+     * @return Whether the change will be reported when the current batch ends.
+     */
+    boolean deferChange(Preference preference) {
+        if (mChangeBatchDepth == 0) {
+            return false;
+        }
+
+        mBatchedChanges.add(preference);
+        return true;
+    }
+
+    /**
+     * Registers a preference whose predicate reads the values of other preferences.
+     *
+     * @param preference The preference with the predicate.
+     * @param predicate The predicate.
+     */
+    void registerPredicateDependent(Preference preference, PreferencePredicate predicate) {
+        for (String key : predicate.getKeys()) {
+            List<Preference> dependents = mPredicateDependents.get(key);
+            if (dependents == null) {
+                dependents = new ArrayList<>();
+                mPredicateDependents.put(key, dependents);
+            }
+            if (!dependents.contains(preference)) {
+                dependents.add(preference);
+            }
+        }
+    }
+
+    /**
+     * Removes a preference registered with
+     * {@link #registerPredicateDependent(Preference, PreferencePredicate)}.
+     */
+    void unregisterPredicateDependent(Preference preference, PreferencePredicate predicate) {
+        for (String key : predicate.getKeys()) {
+            final List<Preference> dependents = mPredicateDependents.get(key);
+            if (dependents != null) {
+                dependents.remove(preference);
+                if (dependents.isEmpty()) {
+                    mPredicateDependents.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by a preference when its value has changed. Only the preferences whose
+     * predicates read that value are evaluated again, and their changes are reported to
+     * the adapter in one batch.
+     *
+     * @param preference The preference whose value changed.
+     */
+    void onPreferenceValueChanged(Preference preference) {
+        final String key = preference.getKey();
+        final List<Preference> dependents = key != null ? mPredicateDependents.get(key) : null;
+        if (dependents == null) {
+            return;
+        }
+
+        beginChangeBatch();
+        try {
+            for (Preference dependent : new ArrayList<>(dependents)) {
+                dependent.evaluatePredicates();
+            }
+        } finally {
+            endChangeBatch();
+        }
+    }
+
     public PreferenceScreen createPreferenceScreen(Context context) {
         final PreferenceScreen preferenceScreen = new PreferenceScreen(context, null);
         preferenceScreen.onAttachedToHierarchy(this);
@@ -171,6 +412,10 @@ public class PreferenceManager {
     public void setSharedPreferencesName(String sharedPreferencesName) {
         mSharedPreferencesName = sharedPreferencesName;
         mSharedPreferences = null;
+
+        if (sPrewarmEnabled) {
+            prewarm(mContext, mSharedPreferencesName, mSharedPreferencesMode);
+        }
     }
 
     /**
@@ -194,6 +439,10 @@ public class PreferenceManager {
     public void setSharedPreferencesMode(int sharedPreferencesMode) {
         mSharedPreferencesMode = sharedPreferencesMode;
         mSharedPreferences = null;
+
+        if (sPrewarmEnabled) {
+            prewarm(mContext, mSharedPreferencesName, mSharedPreferencesMode);
+        }
     }
 
     /**
@@ -204,7 +453,14 @@ public class PreferenceManager {
      *         the values of preferences that are managed by this.
      */
     public SharedPreferences getSharedPreferences() {
+        if (mSnapshotSharedPreferences != null) {
+            return mSnapshotSharedPreferences;
+        }
+
         if (mSharedPreferences == null) {
+            // Wait for migrations still running on this file
+            SharedPreferencesTasks.await(mSharedPreferencesName);
+
             mSharedPreferences = mContext.getSharedPreferences(mSharedPreferencesName,
                     mSharedPreferencesMode);
         }
@@ -221,6 +477,8 @@ public class PreferenceManager {
      *         listen to values of the preferences.
      */
     public static SharedPreferences getDefaultSharedPreferences(Context context) {
+        SharedPreferencesTasks.await(getDefaultSharedPreferencesName(context));
+
         return context.getSharedPreferences(getDefaultSharedPreferencesName(context),
                 getDefaultSharedPreferencesMode());
     }
@@ -233,6 +491,122 @@ public class PreferenceManager {
         return Context.MODE_PRIVATE;
     }
 
+    /**
+     * Sets whether a {@link PreferenceManager} starts loading its SharedPreferences file in
+     * the background as soon as it is created, or when its name or mode changes. Enabled by
+     * default.
+     *
+     * @param enabled Whether to prewarm automatically.
+     * @see #prewarm(Context, String, int)
+     */
+    public static void setPrewarmEnabled(boolean enabled) {
+        sPrewarmEnabled = enabled;
+    }
+
+    /**
+     * Returns whether a {@link PreferenceManager} prewarms its SharedPreferences file
+     * automatically.
+     *
+     * @return Whether prewarming is automatic.
+     * @see #setPrewarmEnabled(boolean)
+     */
+    public static boolean isPrewarmEnabled() {
+        return sPrewarmEnabled;
+    }
+
+    /**
+     * Starts loading the default SharedPreferences file in the background.
+     *
+     * @param context The context of the shared preferences.
+     * @see #prewarm(Context, String, int)
+     */
+    public static void prewarm(Context context) {
+        prewarm(context, getDefaultSharedPreferencesName(context),
+                getDefaultSharedPreferencesMode());
+    }
+
+    /**
+     * Starts loading a SharedPreferences file in the background, so that the first read on
+     * the main thread, usually while inflating preferences, does not wait for the disk.
+     * This can be called as early as {@link android.app.Application#onCreate()}.
+     * <p>
+     * {@link #getSharedPreferences()} only waits for whatever part of the load is still
+     * pending.
+     *
+     * @param context The context of the shared preferences.
+     * @param sharedPreferencesName The name of the SharedPreferences file.
+     * @param sharedPreferencesMode The mode of the SharedPreferences file.
+     */
+    public static void prewarm(Context context, final String sharedPreferencesName,
+            final int sharedPreferencesMode) {
+        final Context appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+
+        SharedPreferencesTasks.submit(sharedPreferencesName, new Runnable() {
+            @Override
+            public void run() {
+                // Any read blocks until the file has been loaded
+                appContext.getSharedPreferences(sharedPreferencesName, sharedPreferencesMode)
+                        .contains(KEY_MIGRATION_VERSION);
+            }
+        });
+    }
+
+    /**
+     * Runs the given migration steps on the SharedPreferences file that preferences managed
+     * by this will use. See {@link #runMigrations(Context, String, int, PreferenceMigration...)}.
+     * <p>
+     * This must be called before the first call to {@link #getSharedPreferences()}, for
+     * example before {@link PreferenceFragment#addPreferencesFromResource(int)}.
+     *
+     * @param migrations The migration steps.
+     */
+    public void addMigrations(PreferenceMigration... migrations) {
+        runMigrations(mContext, mSharedPreferencesName, mSharedPreferencesMode, migrations);
+    }
+
+    /**
+     * Runs the given migration steps on the default SharedPreferences file.
+     *
+     * @param context The context of the shared preferences.
+     * @param migrations The migration steps.
+     * @see #runMigrations(Context, String, int, PreferenceMigration...)
+     */
+    public static void runMigrations(Context context, PreferenceMigration... migrations) {
+        runMigrations(context, getDefaultSharedPreferencesName(context),
+                getDefaultSharedPreferencesMode(), migrations);
+    }
+
+    /**
+     * Runs the given migration steps on a SharedPreferences file in the background. Steps
+     * newer than the version recorded under {@link #KEY_MIGRATION_VERSION} are applied in
+     * version order and written back in a single commit. Once every step has been applied,
+     * this only costs reading the recorded version.
+     * <p>
+     * {@link #getSharedPreferences()} and {@link #getDefaultSharedPreferences(Context)} wait
+     * for the migrations of their file to finish, so this can be called as early as
+     * {@link android.app.Application#onCreate()}.
+     *
+     * @param context The context of the shared preferences.
+     * @param sharedPreferencesName The name of the SharedPreferences file.
+     * @param sharedPreferencesMode The mode of the SharedPreferences file.
+     * @param migrations The migration steps.
+     * @see PreferenceMigration
+     */
+    public static void runMigrations(Context context, final String sharedPreferencesName,
+            final int sharedPreferencesMode, final PreferenceMigration... migrations) {
+        final Context appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+
+        SharedPreferencesTasks.submit(sharedPreferencesName, new Runnable() {
+            @Override
+            public void run() {
+                PreferenceMigration.migrate(appContext.getSharedPreferences(
+                        sharedPreferencesName, sharedPreferencesMode), migrations);
+            }
+        });
+    }
+
     /**
      * Returns the root of the preference hierarchy managed by this class.
      *
@@ -251,6 +625,13 @@ public class PreferenceManager {
     public boolean setPreferences(PreferenceScreen preferenceScreen) {
         if (preferenceScreen != mPreferenceScreen) {
             mPreferenceScreen = preferenceScreen;
+
+            mPreferencesByKey.clear();
+            mSharedKeys.clear();
+            if (preferenceScreen != null) {
+                indexPreferences(preferenceScreen);
+            }
+            mSearchIndex = null;
             return true;
         }
 
@@ -269,7 +650,340 @@ public class PreferenceManager {
             return null;
         }
 
-        return mPreferenceScreen.findPreference(key);
+        if (key == null) {
+            return mPreferenceScreen.findPreference(null);
+        }
+
+        return mPreferencesByKey.get(key.toString());
+    }
+
+    /**
+     * Rebuilds the key index from the given group, in hierarchy order. See
+     * {@link #indexPreference(Preference)} for preferences that share a key.
+     */
+    private void indexPreferences(PreferenceGroup group) {
+        indexPreference(group);
+
+        final int preferenceCount = group.getPreferenceCount();
+        for (int i = 0; i < preferenceCount; i++) {
+            final Preference preference = group.getPreference(i);
+            if (preference instanceof PreferenceGroup) {
+                indexPreferences((PreferenceGroup) preference);
+            } else {
+                indexPreference(preference);
+            }
+        }
+    }
+
+    /**
+     * Adds a preference to the key index. If another preference is already indexed with the
+     * same key, it is kept: the first preference indexed or registered with a key is the one
+     * returned, until it is removed.
+     */
+    private void indexPreference(Preference preference) {
+        final String key = preference.getKey();
+        if (TextUtils.isEmpty(key)) {
+            return;
+        }
+
+        final Preference indexed = mPreferencesByKey.get(key);
+        if (indexed == null) {
+            mPreferencesByKey.put(key, preference);
+        } else if (indexed != preference) {
+            mSharedKeys.add(key);
+        }
+    }
+
+    /**
+     * Called by a preference when it is attached to the hierarchy or its key changes, so
+     * that it can be found by {@link #findPreference(CharSequence)}. If another preference
+     * is already indexed with the same key, it is kept.
+     *
+     * @param preference The preference to add to the index.
+     */
+    void registerPreference(Preference preference) {
+        indexPreference(preference);
+
+        onPreferenceSearchableChange(preference);
+    }
+
+    /**
+     * Registers a preference and, if it is a group, all of its children.
+     *
+     * @param preference The preference to add to the index.
+     */
+    void registerPreferenceTree(Preference preference) {
+        registerPreference(preference);
+
+        if (preference instanceof PreferenceGroup) {
+            final PreferenceGroup group = (PreferenceGroup) preference;
+            final int preferenceCount = group.getPreferenceCount();
+            for (int i = 0; i < preferenceCount; i++) {
+                registerPreferenceTree(group.getPreference(i));
+            }
+        }
+    }
+
+    /**
+     * Called when a preference's key changes.
+     *
+     * @param preference The preference to remove from the index.
+     * @param key The key the preference was registered with.
+     */
+    void unregisterPreference(Preference preference, String key) {
+        if (key != null && mPreferencesByKey.get(key) == preference) {
+            mPreferencesByKey.remove(key);
+            reindexSharedKey(key, preference, false);
+        }
+    }
+
+    /**
+     * After the preference indexed with a shared key is removed from the index, indexes the
+     * first other preference in the hierarchy that has the key.
+     *
+     * @param key The key.
+     * @param removed The preference that was removed.
+     * @param removedTree Whether the children of {@code removed} are being removed too.
+     */
+    private void reindexSharedKey(String key, Preference removed, boolean removedTree) {
+        if (!mSharedKeys.contains(key) || mPreferenceScreen == null) {
+            return;
+        }
+
+        final Preference other = findPreferenceInTree(mPreferenceScreen, key, removed,
+                removedTree);
+        if (other != null) {
+            mPreferencesByKey.put(key, other);
+        } else {
+            mSharedKeys.remove(key);
+        }
+    }
+
+    private static Preference findPreferenceInTree(Preference preference, String key,
+            Preference excluded, boolean excludeTree) {
+        if (preference == excluded && excludeTree) {
+            return null;
+        }
+        if (preference != excluded && key.equals(preference.getKey())) {
+            return preference;
+        }
+
+        if (preference instanceof PreferenceGroup) {
+            final PreferenceGroup group = (PreferenceGroup) preference;
+            final int preferenceCount = group.getPreferenceCount();
+            for (int i = 0; i < preferenceCount; i++) {
+                final Preference found = findPreferenceInTree(group.getPreference(i), key,
+                        excluded, excludeTree);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called when a preference is removed from the hierarchy. Groups are removed from the
+     * index together with their children.
+     *
+     * @param preference The preference to remove from the index.
+     */
+    void unregisterPreferenceTree(Preference preference) {
+        final List<String> sharedKeys = mSharedKeys.isEmpty() ? null : new ArrayList<String>();
+        unregisterPreferenceTree(preference, sharedKeys);
+
+        if (sharedKeys != null) {
+            // The removed tree is still attached, so it is skipped when looking for another
+            // preference with the key
+            for (String key : sharedKeys) {
+                reindexSharedKey(key, preference, true);
+            }
+        }
+    }
+
+    private void unregisterPreferenceTree(Preference preference, List<String> sharedKeys) {
+        final String key = preference.getKey();
+        if (key != null && mPreferencesByKey.get(key) == preference) {
+            mPreferencesByKey.remove(key);
+            if (sharedKeys != null && mSharedKeys.contains(key)) {
+                sharedKeys.add(key);
+            }
+        }
+        if (mSearchIndex != null) {
+            mSearchIndex.remove(preference);
+        }
+
+        if (preference instanceof PreferenceGroup) {
+            final PreferenceGroup group = (PreferenceGroup) preference;
+            final int preferenceCount = group.getPreferenceCount();
+            for (int i = 0; i < preferenceCount; i++) {
+                unregisterPreferenceTree(group.getPreference(i), sharedKeys);
+            }
+        }
+    }
+
+    /**
+     * Returns the text layout precomputer shared by the preferences in this hierarchy.
+     *
+     * @return The precomputer.
+     */
+    TextLayoutPrecomputer getTextLayoutPrecomputer() {
+        return mTextLayoutPrecomputer;
+    }
+
+    /**
+     * Returns the popup shared by the {@link SimpleMenuPreference}s in this hierarchy,
+     * creating it on first use.
+     *
+     * @param context The context to create the popup with.
+     * @return The popup.
+     */
+    SimpleMenuPopup getSimpleMenuPopup(Context context) {
+        if (mSimpleMenuPopup == null) {
+            mSimpleMenuPopup = new SimpleMenuPopup(context);
+        }
+        return mSimpleMenuPopup;
+    }
+
+    /**
+     * Returns the search index over every {@link Preference} in the current
+     * {@link PreferenceScreen}, including nested screens. The index is built on first use
+     * and then kept up to date as preferences are added, removed or changed. A new index
+     * is built when the screen is replaced.
+     *
+     * @return The search index, or null if there is no screen.
+     */
+    public PreferenceSearchIndex getSearchIndex() {
+        if (mPreferenceScreen == null) {
+            return null;
+        }
+
+        if (mSearchIndex == null) {
+            mSearchIndex = new PreferenceSearchIndex();
+            mSearchIndex.addAll(mPreferenceScreen);
+        }
+        return mSearchIndex;
+    }
+
+    /**
+     * Called by a preference when text that the search index covers has changed, or when
+     * it has been added to the hierarchy.
+     *
+     * @param preference The preference that changed.
+     */
+    void onPreferenceSearchableChange(Preference preference) {
+        if (mSearchIndex == null) {
+            return;
+        }
+
+        // Only index preferences under the current screen
+        Preference root = preference;
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        if (root == mPreferenceScreen) {
+            mSearchIndex.update(preference);
+        }
+    }
+
+    /**
+     * Writes the persisted values of every {@link Preference} reachable from the
+     * {@link PreferenceScreen} at the root of this hierarchy, including nested screens,
+     * to the given writer as a JSON object keyed by preference key.
+     * <p>
+     * Values are streamed straight from the {@link SharedPreferences} as the hierarchy is
+     * walked. Each {@link Preference} subclass writes its own value type, see
+     * {@link Preference#onExportValue(JsonWriter)}. Keys that are not present in the
+     * {@link SharedPreferences} are skipped.
+     * <p>
+     * The writer is flushed but not closed.
+     *
+     * @param out The writer to write to.
+     * @return The number of values written.
+     * @throws IOException If writing fails.
+     * @see #importPreferences(Reader)
+     */
+    public int exportPreferences(Writer out) throws IOException {
+        final JsonWriter writer = new JsonWriter(out);
+        int count = 0;
+
+        writer.beginObject();
+        if (mPreferenceScreen != null) {
+            count = exportPreferences(writer, mPreferenceScreen);
+        }
+        writer.endObject();
+        writer.flush();
+
+        return count;
+    }
+
+    private int exportPreferences(JsonWriter writer, PreferenceGroup group) throws IOException {
+        final SharedPreferences sharedPreferences = getSharedPreferences();
+        int count = 0;
+
+        final int preferenceCount = group.getPreferenceCount();
+        for (int i = 0; i < preferenceCount; i++) {
+            final Preference preference = group.getPreference(i);
+
+            if (preference.shouldPersist() && sharedPreferences.contains(preference.getKey())
+                    && preference.onExportValue(writer)) {
+                count++;
+            }
+
+            if (preference instanceof PreferenceGroup) {
+                count += exportPreferences(writer, (PreferenceGroup) preference);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads values written by {@link #exportPreferences(Writer)} and applies them to the
+     * {@link SharedPreferences} in a single batch. Keys that do not belong to a persistent
+     * {@link Preference} in this hierarchy are ignored. Once applied, each affected
+     * {@link Preference} is updated to its new value.
+     * <p>
+     * This should be called on the main thread, as it updates the preferences in the hierarchy.
+     * The reader is not closed.
+     *
+     * @param in The reader to read from.
+     * @return The number of values imported.
+     * @throws IOException If reading fails or the input is malformed.
+     * @see #exportPreferences(Writer)
+     */
+    public int importPreferences(Reader in) throws IOException {
+        final JsonReader reader = new JsonReader(in);
+        final SharedPreferences.Editor editor = getSharedPreferences().edit();
+        final List<Preference> imported = new ArrayList<>();
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final Preference preference = findPreference(reader.nextName());
+                if (preference == null || !preference.shouldPersist()) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                if (preference.onImportValue(reader, editor)) {
+                    imported.add(preference);
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // Thrown by JsonReader when a value has an unexpected type
+            throw new IOException(e);
+        }
+
+        SharedPreferencesCompat.EditorCompat.getInstance().apply(editor);
+
+        final int importedCount = imported.size();
+        for (int i = 0; i < importedCount; i++) {
+            imported.get(i).onSetInitialValue(true, null);
+        }
+
+        return importedCount;
     }
 
     /**
@@ -470,6 +1184,59 @@ public class PreferenceManager {
         return mOnNavigateToScreenListener;
     }
 
+    /**
+     * Sets the listener that receives timings of the work done for this hierarchy. Set it
+     * before the hierarchy is inflated to include the inflation.
+     *
+     * @param metrics The listener, or null to stop timing.
+     */
+    public void setPreferenceMetrics(PreferenceMetrics metrics) {
+        mPreferenceMetrics = metrics;
+    }
+
+    /**
+     * Returns the {@link PreferenceMetrics}, if one has been set.
+     */
+    public PreferenceMetrics getPreferenceMetrics() {
+        return mPreferenceMetrics;
+    }
+
+    /**
+     * Sets whether the work that a {@link PreferenceMetrics} would time is marked as systrace
+     * sections. This works whether or not a {@link PreferenceMetrics} is set, and costs
+     * nothing while disabled.
+     *
+     * @param enabled Whether to emit sections.
+     */
+    public void setTraceSectionsEnabled(boolean enabled) {
+        mTraceSectionsEnabled = enabled;
+    }
+
+    public boolean isTraceSectionsEnabled() {
+        return mTraceSectionsEnabled;
+    }
+
+    /**
+     * Begins a systrace section. Read {@link #isTraceSectionsEnabled()} once per operation
+     * and use that value to decide both this call and {@link #endTraceSection()}, so the
+     * sections stay balanced if it changes meanwhile.
+     *
+     * @param name The name of the section.
+     * @param detail Appended to the name, or null.
+     */
+    static void beginTraceSection(String name, Object detail) {
+        String section = detail != null ? name + ' ' + detail : name;
+        if (section.length() > 127) {
+            // The limit of Trace.beginSection
+            section = section.substring(0, 127);
+        }
+        TraceCompat.beginSection(section);
+    }
+
+    static void endTraceSection() {
+        TraceCompat.endSection();
+    }
+
     /**
      * Interface definition for a callback to be invoked when a
      * {@link Preference} in the hierarchy rooted at this {@link PreferenceScreen} is
@@ -0,0 +1,73 @@
+package rikka.materialpreference;
+
+/**
+ * Receives timings of the work done to show and update a preference screen, to find out
+ * where the time of a slow screen goes. Register it with
+ * {@link PreferenceManager#setPreferenceMetrics(PreferenceMetrics)}. When none is registered
+ * nothing is timed. The same work can be marked as systrace sections with
+ * {@link PreferenceManager#setTraceSectionsEnabled(boolean)}.
+ * <p>
+ * Callbacks are made on the main thread, in the middle of the work they measure, so they
+ * should only record the values. Durations are in nanoseconds.
+ */
+public interface PreferenceMetrics {
+
+    /**
+     * Called when a preference XML resource has been inflated. The duration includes the
+     * constructors of its preferences.
+     *
+     * @param resId The XML resource ID.
+     * @param durationNanos The time spent.
+     */
+    void onInflate(int resId, long durationNanos);
+
+    /**
+     * Called when a preference has been constructed during inflation.
+     *
+     * @param preferenceClass The class of the preference.
+     * @param durationNanos The time spent in its constructor.
+     */
+    void onPreferenceConstructed(Class<? extends Preference> preferenceClass,
+            long durationNanos);
+
+    /**
+     * Called when a {@link PreferenceGroupAdapter} has synced with its hierarchy.
+     *
+     * @param preferenceCount The number of preferences in the flattened hierarchy.
+     * @param flattenNanos The time spent flattening the hierarchy.
+     * @param syncNanos The time spent syncing, flattening included.
+     */
+    void onAdapterSync(int preferenceCount, long flattenNanos, long syncNanos);
+
+    /**
+     * Called when a preference has been bound to a view.
+     *
+     * @param layoutResId The layout resource of the view type.
+     * @param widgetLayoutResId The widget layout resource of the view type, or 0.
+     * @param durationNanos The time spent binding.
+     */
+    void onBind(int layoutResId, int widgetLayoutResId, long durationNanos);
+
+    /**
+     * Called when a preference has applied a change of its value to the
+     * {@link android.content.SharedPreferences}. Writes made while a hierarchy is inflated
+     * are committed together and not reported.
+     * <p>
+     * The duration only covers {@link android.content.SharedPreferences.Editor#apply()} on
+     * the main thread, which updates the values in memory and queues the write. The disk
+     * write happens later on another thread and is not included.
+     *
+     * @param key The key of the preference.
+     * @param durationNanos The time spent in apply().
+     */
+    void onApply(String key, long durationNanos);
+
+    /**
+     * Called when a preference has notified its dependents of a change.
+     *
+     * @param key The key of the preference.
+     * @param dependentCount The number of direct dependents.
+     * @param durationNanos The time spent, changes of indirect dependents included.
+     */
+    void onDependencyChange(String key, int dependentCount, long durationNanos);
+}
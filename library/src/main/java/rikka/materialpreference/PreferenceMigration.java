@@ -0,0 +1,273 @@
+package rikka.materialpreference;
+
+import android.content.SharedPreferences;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A versioned step that changes the keys or value types stored in a
+ * {@link SharedPreferences} file, such as renaming a key or turning a string value
+ * into an int.
+ * <p>
+ * Steps are registered with {@link PreferenceManager#addMigrations(PreferenceMigration...)}
+ * or {@link PreferenceManager#runMigrations(android.content.Context, String, int,
+ * PreferenceMigration...)}. Steps with a version newer than the one recorded under
+ * {@link PreferenceManager#KEY_MIGRATION_VERSION} are run in version order against a copy
+ * of the stored values, and the result is written back in a single commit together with
+ * the new version. Once recorded, a version is never run again.
+ *
+ * @see #rename(int, String, String)
+ * @see #retype(int, String, Converter)
+ * @see #split(int, String, String[], Splitter)
+ * @see #merge(int, String[], String, Merger)
+ */
+public abstract class PreferenceMigration {
+
+    private final int mVersion;
+
+    /**
+     * @param version The version of this step. Must be greater than 0.
+     */
+    protected PreferenceMigration(int version) {
+        if (version <= 0) {
+            throw new IllegalArgumentException("Migration version must be greater than 0.");
+        }
+        mVersion = version;
+    }
+
+    /**
+     * Returns the version of this step.
+     *
+     * @return The version.
+     */
+    public final int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Applies this step.
+     *
+     * @param values A mutable copy of the stored values, including the changes made by
+     *               earlier steps. Values must be of a type that
+     *               {@link SharedPreferences.Editor} can store.
+     */
+    public abstract void migrate(Map<String, Object> values);
+
+    /**
+     * Converts a stored value to a different value or type.
+     */
+    public interface Converter {
+        /**
+         * @param value The stored value, never null.
+         * @return The new value, or null to remove the key.
+         */
+        Object convert(Object value);
+    }
+
+    /**
+     * Splits a stored value into values for several keys.
+     */
+    public interface Splitter {
+        /**
+         * @param value The stored value, never null.
+         * @return One value for each target key, in the same order. A null element leaves
+         *         that key unset.
+         */
+        Object[] split(Object value);
+    }
+
+    /**
+     * Merges the values of several keys into one.
+     */
+    public interface Merger {
+        /**
+         * @param values The stored values, in the same order as the source keys. Keys that
+         *               are not stored are null.
+         * @return The merged value, or null to leave the target key unset.
+         */
+        Object merge(Object[] values);
+    }
+
+    /**
+     * Moves the value stored under {@code from} to {@code to}.
+     *
+     * @param version The version of this step.
+     * @param from The old key.
+     * @param to The new key.
+     * @return The migration step.
+     */
+    public static PreferenceMigration rename(int version, final String from, final String to) {
+        return new PreferenceMigration(version) {
+            @Override
+            public void migrate(Map<String, Object> values) {
+                if (values.containsKey(from)) {
+                    values.put(to, values.remove(from));
+                }
+            }
+        };
+    }
+
+    /**
+     * Converts the value stored under {@code key}, for example from the string value of a
+     * {@link ListPreference} to an int.
+     *
+     * @param version The version of this step.
+     * @param key The key whose value is converted.
+     * @param converter The conversion.
+     * @return The migration step.
+     */
+    public static PreferenceMigration retype(int version, final String key,
+            final Converter converter) {
+        return new PreferenceMigration(version) {
+            @Override
+            public void migrate(Map<String, Object> values) {
+                final Object value = values.get(key);
+                if (value == null) {
+                    return;
+                }
+
+                final Object converted = converter.convert(value);
+                if (converted != null) {
+                    values.put(key, converted);
+                } else {
+                    values.remove(key);
+                }
+            }
+        };
+    }
+
+    /**
+     * Replaces the value stored under {@code from} with values for each of {@code to}.
+     *
+     * @param version The version of this step.
+     * @param from The key to split.
+     * @param to The new keys.
+     * @param splitter Produces one value for each new key.
+     * @return The migration step.
+     */
+    public static PreferenceMigration split(int version, final String from, final String[] to,
+            final Splitter splitter) {
+        return new PreferenceMigration(version) {
+            @Override
+            public void migrate(Map<String, Object> values) {
+                final Object value = values.remove(from);
+                if (value == null) {
+                    return;
+                }
+
+                final Object[] parts = splitter.split(value);
+                for (int i = 0; i < to.length && i < parts.length; i++) {
+                    if (parts[i] != null) {
+                        values.put(to[i], parts[i]);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Replaces the values stored under each of {@code from} with a single value under
+     * {@code to}.
+     *
+     * @param version The version of this step.
+     * @param from The keys to merge.
+     * @param to The new key.
+     * @param merger Produces the merged value.
+     * @return The migration step.
+     */
+    public static PreferenceMigration merge(int version, final String[] from, final String to,
+            final Merger merger) {
+        return new PreferenceMigration(version) {
+            @Override
+            public void migrate(Map<String, Object> values) {
+                final Object[] parts = new Object[from.length];
+                boolean found = false;
+                for (int i = 0; i < from.length; i++) {
+                    parts[i] = values.remove(from[i]);
+                    found |= parts[i] != null;
+                }
+
+                if (!found) {
+                    return;
+                }
+
+                final Object merged = merger.merge(parts);
+                if (merged != null) {
+                    values.put(to, merged);
+                }
+            }
+        };
+    }
+
+    /**
+     * Runs every step newer than the version recorded in the given SharedPreferences and
+     * commits the result, together with the new version, in one write. Does nothing if all
+     * steps have already been applied.
+     */
+    @SuppressWarnings("unchecked")
+    static void migrate(SharedPreferences sharedPreferences, PreferenceMigration[] migrations) {
+        if (migrations.length == 0) {
+            return;
+        }
+
+        final PreferenceMigration[] sorted = migrations.clone();
+        Arrays.sort(sorted, new Comparator<PreferenceMigration>() {
+            @Override
+            public int compare(PreferenceMigration o1, PreferenceMigration o2) {
+                return o1.mVersion < o2.mVersion ? -1 : (o1.mVersion == o2.mVersion ? 0 : 1);
+            }
+        });
+
+        final int currentVersion =
+                sharedPreferences.getInt(PreferenceManager.KEY_MIGRATION_VERSION, 0);
+        final int targetVersion = sorted[sorted.length - 1].mVersion;
+        if (targetVersion <= currentVersion) {
+            return;
+        }
+
+        final Map<String, ?> original = sharedPreferences.getAll();
+        final Map<String, Object> values = new HashMap<String, Object>(original);
+        for (PreferenceMigration migration : sorted) {
+            if (migration.mVersion > currentVersion) {
+                migration.migrate(values);
+            }
+        }
+
+        final SharedPreferences.Editor editor = sharedPreferences.edit();
+        for (String key : original.keySet()) {
+            if (!values.containsKey(key)) {
+                editor.remove(key);
+            }
+        }
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            final String key = entry.getKey();
+            final Object value = entry.getValue();
+            if (value == null) {
+                editor.remove(key);
+            } else if (value.equals(original.get(key))) {
+                continue;
+            } else if (value instanceof String) {
+                editor.putString(key, (String) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(key, (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(key, (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(key, (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(key, (Float) value);
+            } else if (value instanceof Set) {
+                editor.putStringSet(key, (Set<String>) value);
+            } else {
+                throw new IllegalArgumentException("Unsupported value type "
+                        + value.getClass().getName() + " for key \"" + key + "\"");
+            }
+        }
+        editor.putInt(PreferenceManager.KEY_MIGRATION_VERSION, targetVersion);
+        editor.commit();
+    }
+}
@@ -0,0 +1,154 @@
+package rikka.materialpreference;
+
+import android.text.TextUtils;
+
+import java.util.Collection;
+
+/**
+ * A condition on the values of other preferences, used by
+ * {@link Preference#setVisibleWhen(String)} and {@link Preference#setEnabledWhen(String)}.
+ * <p>
+ * An expression is one or more clauses joined by {@code &&}. Each clause is one of:
+ * <ul>
+ * <li>{@code key}: the value of the preference with that key is set, see below</li>
+ * <li>{@code !key}: the value is not set</li>
+ * <li>{@code key == value}: the value, as a string, equals {@code value}</li>
+ * <li>{@code key != value}: the value, as a string, does not equal {@code value}</li>
+ * </ul>
+ * A value is set if it is {@code true}, a non-empty string or collection, or a non-zero
+ * number. Values are read with {@link Preference#getPredicateValue()}.
+ * <p>
+ * Expressions are parsed once, evaluation only looks up the referenced preferences.
+ */
+public final class PreferencePredicate {
+
+    private static final int OP_SET = 0;
+    private static final int OP_NOT_SET = 1;
+    private static final int OP_EQUALS = 2;
+    private static final int OP_NOT_EQUALS = 3;
+
+    private final String mExpression;
+    private final String[] mKeys;
+    private final int[] mOps;
+    private final String[] mValues;
+
+    private PreferencePredicate(String expression, String[] keys, int[] ops, String[] values) {
+        mExpression = expression;
+        mKeys = keys;
+        mOps = ops;
+        mValues = values;
+    }
+
+    /**
+     * Parses an expression.
+     *
+     * @param expression The expression, see {@link PreferencePredicate}.
+     * @return The parsed predicate.
+     * @throws IllegalArgumentException If the expression is malformed.
+     */
+    public static PreferencePredicate parse(String expression) {
+        if (TextUtils.isEmpty(expression)) {
+            throw new IllegalArgumentException("Empty predicate");
+        }
+
+        final String[] clauses = expression.split("&&");
+        final int count = clauses.length;
+        final String[] keys = new String[count];
+        final int[] ops = new int[count];
+        final String[] values = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            final String clause = clauses[i].trim();
+
+            int index;
+            if ((index = clause.indexOf("==")) >= 0) {
+                ops[i] = OP_EQUALS;
+            } else if ((index = clause.indexOf("!=")) >= 0) {
+                ops[i] = OP_NOT_EQUALS;
+            }
+
+            if (index >= 0) {
+                keys[i] = clause.substring(0, index).trim();
+                values[i] = clause.substring(index + 2).trim();
+            } else if (clause.startsWith("!")) {
+                ops[i] = OP_NOT_SET;
+                keys[i] = clause.substring(1).trim();
+            } else {
+                ops[i] = OP_SET;
+                keys[i] = clause;
+            }
+
+            if (keys[i].isEmpty()) {
+                throw new IllegalArgumentException("Missing key in predicate \""
+                        + expression + "\"");
+            }
+        }
+
+        return new PreferencePredicate(expression, keys, ops, values);
+    }
+
+    /**
+     * Returns the keys of the preferences this predicate reads.
+     *
+     * @return The keys, possibly with duplicates.
+     */
+    public String[] getKeys() {
+        return mKeys.clone();
+    }
+
+    /**
+     * Evaluates this predicate against the preferences of a hierarchy. A key without a
+     * preference is treated as a preference with a null value.
+     *
+     * @param preferenceManager The manager of the hierarchy.
+     * @return Whether every clause holds.
+     */
+    public boolean evaluate(PreferenceManager preferenceManager) {
+        for (int i = 0; i < mKeys.length; i++) {
+            final Preference preference = preferenceManager.findPreference(mKeys[i]);
+            final Object value = preference != null ? preference.getPredicateValue() : null;
+
+            final boolean result;
+            switch (mOps[i]) {
+                case OP_SET:
+                    result = isSet(value);
+                    break;
+                case OP_NOT_SET:
+                    result = !isSet(value);
+                    break;
+                case OP_EQUALS:
+                    result = value != null && mValues[i].equals(String.valueOf(value));
+                    break;
+                default:
+                    result = value == null || !mValues[i].equals(String.valueOf(value));
+                    break;
+            }
+
+            if (!result) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isSet(Object value) {
+        if (value == null) {
+            return false;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() > 0;
+        } else if (value instanceof Collection) {
+            return !((Collection<?>) value).isEmpty();
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue() != 0;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return mExpression;
+    }
+}
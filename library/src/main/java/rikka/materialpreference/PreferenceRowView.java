@@ -0,0 +1,542 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.support.v4.view.ViewCompat;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.widget.LinearLayout;
+
+/**
+ * A preference row that draws its icon, title and summary itself instead of using an
+ * {@link android.widget.ImageView} and two {@link android.widget.TextView}s, and hosts only
+ * the widget frame as a child. It has the same metrics as {@code preference_material.xml}.
+ * <p>
+ * Text layouts are kept between binds and rebuilt only when the text or the width changes.
+ * Layouts computed in the background by {@link TextLayoutPrecomputer} are used when they
+ * have the width of the text. The icon, text and widget are mirrored in a right-to-left
+ * layout direction.
+ *
+ * @see PreferenceGroupAdapter#setRenderMode(int)
+ */
+public class PreferenceRowView extends ViewGroup {
+
+    private static final int MAX_SUMMARY_LINES = 10;
+
+    private final LinearLayout mWidgetFrame;
+
+    private final TextPaint mTitlePaint;
+    private final TextPaint mSummaryPaint;
+    private final ColorStateList mTitleColor;
+    private final ColorStateList mSummaryColor;
+
+    private final int mMinHeight;
+    private final int mIconFrameMarginLeft;
+    private final int mIconFrameMinWidth;
+    private final int mIconFramePaddingRight;
+    private final int mIconFramePaddingVertical;
+    private final int mIconMaxSize;
+    private final int mTextPaddingVertical;
+
+    private Preference mPreference;
+
+    private CharSequence mTitle;
+    private CharSequence mSummary;
+    private Drawable mIcon;
+    private boolean mIconVisible;
+
+    private Layout mTitleLayout;
+    private Layout mSummaryLayout;
+
+    private int mIconWidth;
+    private int mIconHeight;
+    private int mTextLeft;
+    private int mTextTop;
+    private int mTitleOffset;
+    private int mSummaryOffset;
+
+    public PreferenceRowView(Context context) {
+        super(context);
+
+        final TypedValue value = new TypedValue();
+        final float density = getResources().getDisplayMetrics().density;
+
+        mMinHeight = (int) resolveDimension(context, R.attr.listPreferredItemHeightSmall, value,
+                48 * density);
+        setPadding((int) resolveDimension(context, R.attr.listPreferredItemPaddingLeft, value,
+                        16 * density), 0,
+                (int) resolveDimension(context, R.attr.listPreferredItemPaddingRight, value,
+                        16 * density), 0);
+        if (context.getTheme().resolveAttribute(R.attr.selectableItemBackground, value, true)) {
+            setBackgroundResource(value.resourceId);
+        }
+        setFocusable(true);
+        setWillNotDraw(false);
+
+        mIconFrameMarginLeft = (int) (-4 * density);
+        mIconFrameMinWidth = (int) (60 * density);
+        mIconFramePaddingRight = (int) (12 * density);
+        mIconFramePaddingVertical = (int) (4 * density);
+        mIconMaxSize = (int) (48 * density);
+        mTextPaddingVertical = (int) (16 * density);
+
+        mTitlePaint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+        mTitleColor = applyTextAppearance(context, mTitlePaint,
+                R.style.Preference_TextAppearanceMaterialSubhead);
+
+        mSummaryPaint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+        applyTextAppearance(context, mSummaryPaint,
+                context.getTheme().resolveAttribute(android.R.attr.textAppearanceSmall, value,
+                        true) ? value.resourceId : 0);
+        final TypedArray a = context.obtainStyledAttributes(
+                new int[] {android.R.attr.textColorSecondary});
+        mSummaryColor = a.getColorStateList(0);
+        a.recycle();
+
+        mWidgetFrame = new LinearLayout(context);
+        mWidgetFrame.setId(android.R.id.widget_frame);
+        mWidgetFrame.setOrientation(LinearLayout.VERTICAL);
+        mWidgetFrame.setGravity(Gravity.END | Gravity.CENTER_VERTICAL);
+        ViewCompat.setPaddingRelative(mWidgetFrame, (int) (16 * density), 0, 0, 0);
+        addView(mWidgetFrame, new LayoutParams(LayoutParams.WRAP_CONTENT,
+                LayoutParams.MATCH_PARENT));
+
+        updateTextColors();
+    }
+
+    private static float resolveDimension(Context context, int attr, TypedValue value,
+            float defaultValue) {
+        if (context.getTheme().resolveAttribute(attr, value, true)) {
+            return value.getDimension(context.getResources().getDisplayMetrics());
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Applies the size, typeface and color of a text appearance to a paint.
+     *
+     * @return The text color, or null.
+     */
+    private static ColorStateList applyTextAppearance(Context context, TextPaint paint,
+            int resId) {
+        if (resId == 0) {
+            return null;
+        }
+
+        // Sorted by attribute ID, as obtainStyledAttributes requires
+        final TypedArray a = context.obtainStyledAttributes(resId, new int[] {
+                android.R.attr.textSize,
+                android.R.attr.textStyle,
+                android.R.attr.textColor,
+                android.R.attr.fontFamily});
+        paint.setTextSize(a.getDimensionPixelSize(0, (int) paint.getTextSize()));
+        final int style = a.getInt(1, Typeface.NORMAL);
+        final ColorStateList color = a.getColorStateList(2);
+        final String family = a.getString(3);
+        a.recycle();
+
+        paint.setTypeface(family != null
+                ? Typeface.create(family, style) : Typeface.defaultFromStyle(style));
+        return color;
+    }
+
+    /**
+     * Returns the frame that hosts the widget of the preference.
+     *
+     * @return The widget frame, with the ID {@link android.R.id#widget_frame}.
+     */
+    public ViewGroup getWidgetFrame() {
+        return mWidgetFrame;
+    }
+
+    /**
+     * Sets the preference bound to this row, whose background layouts the row can use.
+     *
+     * @param preference The preference, or null.
+     * @see TextLayoutPrecomputer
+     */
+    void setPreference(Preference preference) {
+        mPreference = preference;
+    }
+
+    /**
+     * Sets the title. An empty title is not drawn.
+     *
+     * @param title The title.
+     */
+    public void setTitle(CharSequence title) {
+        if (!TextUtils.equals(mTitle, title)) {
+            mTitle = title;
+            mTitleLayout = null;
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    public CharSequence getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * Sets the summary. An empty summary is not drawn.
+     *
+     * @param summary The summary.
+     */
+    public void setSummary(CharSequence summary) {
+        if (!TextUtils.equals(mSummary, summary)) {
+            mSummary = summary;
+            mSummaryLayout = null;
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    public CharSequence getSummary() {
+        return mSummary;
+    }
+
+    /**
+     * Sets the icon, scaled down to fit 48dp if larger.
+     *
+     * @param icon The icon, or null.
+     */
+    public void setIcon(Drawable icon) {
+        if (mIcon == icon) {
+            return;
+        }
+
+        if (mIcon != null) {
+            mIcon.setCallback(null);
+        }
+        mIcon = icon;
+        if (icon != null) {
+            icon.setCallback(this);
+            icon.setState(getDrawableState());
+        }
+        requestLayout();
+        invalidate();
+    }
+
+    public Drawable getIcon() {
+        return mIcon;
+    }
+
+    /**
+     * Sets whether space is kept for the icon, even if it is null.
+     *
+     * @param visible Whether the icon is shown.
+     */
+    public void setIconVisible(boolean visible) {
+        if (mIconVisible != visible) {
+            mIconVisible = visible;
+            mTitleLayout = null;
+            mSummaryLayout = null;
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    /**
+     * Returns the maximum size the icon is drawn at.
+     *
+     * @return The size in pixels.
+     */
+    public int getIconMaxSize() {
+        return mIconMaxSize;
+    }
+
+    @Override
+    public void onPopulateAccessibilityEvent(AccessibilityEvent event) {
+        super.onPopulateAccessibilityEvent(event);
+        if (!TextUtils.isEmpty(mTitle)) {
+            event.getText().add(mTitle);
+        }
+        if (!TextUtils.isEmpty(mSummary)) {
+            event.getText().add(mSummary);
+        }
+    }
+
+    @Override
+    public void onInitializeAccessibilityNodeInfo(AccessibilityNodeInfo info) {
+        super.onInitializeAccessibilityNodeInfo(info);
+        if (!TextUtils.isEmpty(mTitle) && !TextUtils.isEmpty(mSummary)) {
+            info.setText(TextUtils.concat(mTitle, "\n", mSummary));
+        } else {
+            info.setText(!TextUtils.isEmpty(mTitle) ? mTitle : mSummary);
+        }
+    }
+
+    @Override
+    protected boolean verifyDrawable(Drawable who) {
+        return who == mIcon || super.verifyDrawable(who);
+    }
+
+    @Override
+    protected void drawableStateChanged() {
+        super.drawableStateChanged();
+        if (mIcon != null && mIcon.isStateful()) {
+            mIcon.setState(getDrawableState());
+        }
+        updateTextColors();
+    }
+
+    private void updateTextColors() {
+        final int[] state = getDrawableState();
+        boolean changed = false;
+        if (mTitleColor != null) {
+            final int color = mTitleColor.getColorForState(state, mTitleColor.getDefaultColor());
+            changed = mTitlePaint.getColor() != color;
+            mTitlePaint.setColor(color);
+        }
+        if (mSummaryColor != null) {
+            final int color = mSummaryColor.getColorForState(state,
+                    mSummaryColor.getDefaultColor());
+            changed |= mSummaryPaint.getColor() != color;
+            mSummaryPaint.setColor(color);
+        }
+        if (changed) {
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final int width = MeasureSpec.getSize(widthMeasureSpec);
+
+        // Icon, fit into the maximum size keeping its aspect ratio
+        int iconFrameWidth = 0;
+        int iconFrameHeight = 0;
+        mIconWidth = 0;
+        mIconHeight = 0;
+        if (mIconVisible) {
+            if (mIcon != null) {
+                final int intrinsicWidth = Math.max(mIcon.getIntrinsicWidth(), 0);
+                final int intrinsicHeight = Math.max(mIcon.getIntrinsicHeight(), 0);
+                final float scale = Math.min(1f, Math.min(
+                        intrinsicWidth > 0 ? (float) mIconMaxSize / intrinsicWidth : 1f,
+                        intrinsicHeight > 0 ? (float) mIconMaxSize / intrinsicHeight : 1f));
+                mIconWidth = (int) (intrinsicWidth * scale);
+                mIconHeight = (int) (intrinsicHeight * scale);
+            }
+            iconFrameWidth = mIconFrameMarginLeft
+                    + Math.max(mIconFrameMinWidth, mIconWidth + mIconFramePaddingRight);
+            iconFrameHeight = mIconHeight + 2 * mIconFramePaddingVertical;
+        }
+
+        // Widget
+        int widgetWidth = 0;
+        int widgetHeight = 0;
+        if (mWidgetFrame.getVisibility() != GONE) {
+            mWidgetFrame.measure(
+                    MeasureSpec.makeMeasureSpec(width, MeasureSpec.AT_MOST),
+                    MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+            widgetWidth = mWidgetFrame.getMeasuredWidth();
+            widgetHeight = mWidgetFrame.getMeasuredHeight();
+        }
+
+        // Text
+        final int textWidth = Math.max(width - getPaddingLeft() - getPaddingRight()
+                - iconFrameWidth - widgetWidth, 0);
+        mTitleLayout = obtainTitleLayout(textWidth);
+        mSummaryLayout = obtainSummaryLayout(textWidth);
+        recordTextWidth(textWidth);
+        final int textHeight = 2 * mTextPaddingVertical
+                + (mTitleLayout != null ? mTitleLayout.getHeight() : 0)
+                + getSummaryHeight();
+
+        final int contentHeight = Math.max(textHeight, Math.max(iconFrameHeight, widgetHeight));
+        final int height = resolveSize(Math.max(mMinHeight,
+                contentHeight + getPaddingTop() + getPaddingBottom()), heightMeasureSpec);
+
+        if (mWidgetFrame.getVisibility() != GONE) {
+            mWidgetFrame.measure(
+                    MeasureSpec.makeMeasureSpec(widgetWidth, MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(height - getPaddingTop() - getPaddingBottom(),
+                            MeasureSpec.EXACTLY));
+        }
+
+        mTextLeft = isLayoutRtl() ? getPaddingLeft() + widgetWidth
+                : getPaddingLeft() + iconFrameWidth;
+        mTitleOffset = getStartOffset(mTitleLayout, 1);
+        mSummaryOffset = getStartOffset(mSummaryLayout, MAX_SUMMARY_LINES);
+        mTextTop = getPaddingTop() + (height - getPaddingTop() - getPaddingBottom()
+                - textHeight) / 2 + mTextPaddingVertical;
+
+        setMeasuredDimension(width, height);
+    }
+
+    private Layout obtainTitleLayout(int width) {
+        if (TextUtils.isEmpty(mTitle)) {
+            return null;
+        }
+        if (mTitleLayout != null && mTitleLayout.getWidth() == width) {
+            return mTitleLayout;
+        }
+        final Layout precomputed = getPrecomputedLayout(true, mTitle, mTitlePaint, width);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        return createTitleLayout(mTitle, mTitlePaint, width);
+    }
+
+    private Layout obtainSummaryLayout(int width) {
+        if (TextUtils.isEmpty(mSummary)) {
+            return null;
+        }
+        if (mSummaryLayout != null && mSummaryLayout.getWidth() == width) {
+            return mSummaryLayout;
+        }
+        final Layout precomputed = getPrecomputedLayout(false, mSummary, mSummaryPaint, width);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        return createSummaryLayout(mSummary, mSummaryPaint, width);
+    }
+
+    /**
+     * Returns the layout the bound preference has computed in the background for a text,
+     * if it has the given width and appearance.
+     */
+    private Layout getPrecomputedLayout(boolean title, CharSequence text, TextPaint paint,
+            int width) {
+        if (mPreference == null) {
+            return null;
+        }
+        final Layout layout = mPreference.getPrecomputedLayout(title, text);
+        return TextLayoutPrecomputer.isCurrent(layout, paint, width) ? layout : null;
+    }
+
+    /**
+     * Returns how far to move a layout so that its lines start at the start edge of the
+     * text, like a wrap_content TextView would: text of the other direction is aligned to
+     * the opposite edge of its own layout.
+     */
+    private int getStartOffset(Layout layout, int maxLines) {
+        if (layout == null) {
+            return 0;
+        }
+
+        final int lineCount = Math.min(layout.getLineCount(), maxLines);
+        if (isLayoutRtl()) {
+            float right = 0;
+            for (int i = 0; i < lineCount; i++) {
+                right = Math.max(right, layout.getLineRight(i));
+            }
+            return (int) (layout.getWidth() - right);
+        } else {
+            float left = layout.getWidth();
+            for (int i = 0; i < lineCount; i++) {
+                left = Math.min(left, layout.getLineLeft(i));
+            }
+            return (int) -left;
+        }
+    }
+
+    private boolean isLayoutRtl() {
+        return ViewCompat.getLayoutDirection(this) == ViewCompat.LAYOUT_DIRECTION_RTL;
+    }
+
+    /**
+     * Lays out a title: a single line, ellipsized at the end.
+     */
+    static Layout createTitleLayout(CharSequence title, TextPaint paint, int width) {
+        final CharSequence text = TextUtils.ellipsize(title, paint, width,
+                TextUtils.TruncateAt.END);
+        return new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f,
+                false);
+    }
+
+    /**
+     * Lays out a summary.
+     */
+    static Layout createSummaryLayout(CharSequence summary, TextPaint paint, int width) {
+        return new StaticLayout(summary, paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f,
+                false);
+    }
+
+    /**
+     * Tells the precomputer of the bound preference how wide the text of this kind of row
+     * is, so that it lays out text for the width rows actually use.
+     */
+    private void recordTextWidth(int textWidth) {
+        final PreferenceManager preferenceManager = mPreference != null
+                ? mPreference.getPreferenceManager() : null;
+        if (preferenceManager != null) {
+            preferenceManager.getTextLayoutPrecomputer().recordRow(mTitlePaint, mSummaryPaint,
+                    mIconVisible, mPreference.getWidgetLayoutResource(), textWidth);
+        }
+    }
+
+    /**
+     * Returns the height of the summary, which shows at most {@link #MAX_SUMMARY_LINES}
+     * lines like the summary view of the default layout.
+     */
+    private int getSummaryHeight() {
+        if (mSummaryLayout == null) {
+            return 0;
+        }
+        return mSummaryLayout.getLineTop(
+                Math.min(mSummaryLayout.getLineCount(), MAX_SUMMARY_LINES));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        if (mWidgetFrame.getVisibility() != GONE) {
+            // At the end, which is the left in a right-to-left layout
+            final int left = isLayoutRtl() ? getPaddingLeft()
+                    : r - l - getPaddingRight() - mWidgetFrame.getMeasuredWidth();
+            mWidgetFrame.layout(left, getPaddingTop(), left + mWidgetFrame.getMeasuredWidth(),
+                    getPaddingTop() + mWidgetFrame.getMeasuredHeight());
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (mIconVisible && mIcon != null) {
+            final int left = isLayoutRtl()
+                    ? getWidth() - getPaddingRight() - mIconFrameMarginLeft - mIconWidth
+                    : getPaddingLeft() + mIconFrameMarginLeft;
+            final int top = getPaddingTop() + (getHeight() - getPaddingTop()
+                    - getPaddingBottom() - mIconHeight) / 2;
+            mIcon.setBounds(left, top, left + mIconWidth, top + mIconHeight);
+            mIcon.draw(canvas);
+        }
+
+        int y = mTextTop;
+        if (mTitleLayout != null) {
+            drawLayout(canvas, mTitleLayout, mTitlePaint, y, mTitleOffset,
+                    mTitleLayout.getHeight());
+            y += mTitleLayout.getHeight();
+        }
+        if (mSummaryLayout != null) {
+            drawLayout(canvas, mSummaryLayout, mSummaryPaint, y, mSummaryOffset,
+                    getSummaryHeight());
+        }
+    }
+
+    private void drawLayout(Canvas canvas, Layout layout, TextPaint paint, int top,
+            int offset, int height) {
+        // A precomputed layout has its own paint, which has not followed the state colors
+        layout.getPaint().setColor(paint.getColor());
+
+        canvas.save();
+        canvas.translate(mTextLeft, top);
+        canvas.clipRect(0, 0, layout.getWidth(), height);
+        canvas.translate(offset, 0);
+        layout.draw(canvas);
+        canvas.restore();
+    }
+}
@@ -0,0 +1,436 @@
+package rikka.materialpreference;
+
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An inverted index over the titles, summaries, entries and keys of every
+ * {@link Preference} in a hierarchy, including nested {@link PreferenceScreen PreferenceScreens}.
+ * <p>
+ * The index is obtained with {@link PreferenceManager#getSearchIndex()} and is kept up to
+ * date as preferences are added, removed or change their title, summary or entries. It
+ * must only be used on the main thread.
+ */
+public final class PreferenceSearchIndex {
+
+    /**
+     * Score multiplier for a token equal to the query word.
+     */
+    private static final int BOOST_EXACT = 4;
+
+    /**
+     * Score multiplier for a token starting with the query word.
+     */
+    private static final int BOOST_PREFIX = 2;
+
+    /**
+     * Weight of a token found in the title.
+     */
+    private static final int WEIGHT_TITLE = 8;
+
+    /**
+     * Weight of a token found in the summary.
+     */
+    private static final int WEIGHT_SUMMARY = 3;
+
+    /**
+     * Weight of a token found in the entries.
+     */
+    private static final int WEIGHT_ENTRIES = 2;
+
+    /**
+     * Weight of a token found in the key.
+     */
+    private static final int WEIGHT_KEY = 1;
+
+    /**
+     * Token to the preferences containing it and their weight for that token.
+     */
+    private final TreeMap<String, HashMap<Preference, Integer>> mPostings = new TreeMap<>();
+
+    /**
+     * Preference to the tokens it was indexed with, used to remove it.
+     */
+    private final HashMap<Preference, HashMap<String, Integer>> mTokens = new HashMap<>();
+
+    /**
+     * Trigram to the indexed tokens containing it, used to find tokens close to a misspelled
+     * query word. Tokens are padded with {@code $} on both sides, so short tokens and
+     * their first and last letters are covered too.
+     */
+    private final HashMap<String, HashSet<String>> mTrigrams = new HashMap<>();
+
+    /**
+     * A search result.
+     */
+    public static final class Hit {
+
+        private final Preference mPreference;
+        private final int mScore;
+
+        private Hit(Preference preference, int score) {
+            mPreference = preference;
+            mScore = score;
+        }
+
+        /**
+         * Returns the preference that matched.
+         *
+         * @return The preference.
+         */
+        public Preference getPreference() {
+            return mPreference;
+        }
+
+        /**
+         * Returns the score of this hit. Higher is better.
+         *
+         * @return The score.
+         */
+        public int getScore() {
+            return mScore;
+        }
+
+        /**
+         * Returns the titles of the groups that lead to the preference, outermost first,
+         * such as the nested screen and category it is in. The root screen and groups
+         * without a title are left out.
+         *
+         * @return The breadcrumb path.
+         */
+        public List<CharSequence> getBreadcrumbs() {
+            final ArrayList<CharSequence> breadcrumbs = new ArrayList<>();
+            for (PreferenceGroup group = mPreference.getParent(); group != null;
+                    group = group.getParent()) {
+                if (group.getParent() != null && !TextUtils.isEmpty(group.getTitle())) {
+                    breadcrumbs.add(group.getTitle());
+                }
+            }
+            Collections.reverse(breadcrumbs);
+            return breadcrumbs;
+        }
+    }
+
+    PreferenceSearchIndex() {
+    }
+
+    /**
+     * Finds the preferences matching every word of the query. Words match tokens equal to
+     * them, tokens that start with them, and tokens within a small edit distance of them,
+     * ranked in that order. Titles rank above summaries, entries and keys.
+     *
+     * @param query The query.
+     * @param maxResults The maximum number of hits to return.
+     * @return The hits, best first.
+     */
+    public List<Hit> query(String query, int maxResults) {
+        final List<String> words = tokenize(query);
+        if (words.isEmpty() || maxResults <= 0) {
+            return Collections.emptyList();
+        }
+
+        HashMap<Preference, Integer> scores = null;
+        for (String word : words) {
+            final HashMap<Preference, Integer> wordScores = new HashMap<>();
+
+            final SortedMap<String, HashMap<Preference, Integer>> matches =
+                    mPostings.subMap(word, word + Character.MAX_VALUE);
+            for (Map.Entry<String, HashMap<Preference, Integer>> match : matches.entrySet()) {
+                final int boost = match.getKey().length() == word.length()
+                        ? BOOST_EXACT : BOOST_PREFIX;
+                addScores(wordScores, scores, match.getValue(), boost, 1);
+            }
+
+            final int maxDistance = getMaxDistance(word);
+            if (maxDistance > 0) {
+                for (String token : findFuzzyCandidates(word)) {
+                    // Prefix matches are already scored
+                    if (token.startsWith(word)) {
+                        continue;
+                    }
+
+                    final int distance = editDistance(word, token, maxDistance);
+                    if (distance <= maxDistance) {
+                        addScores(wordScores, scores, mPostings.get(token), 1, distance + 1);
+                    }
+                }
+            }
+
+            if (scores != null) {
+                for (Map.Entry<Preference, Integer> entry : wordScores.entrySet()) {
+                    entry.setValue(entry.getValue() + scores.get(entry.getKey()));
+                }
+            }
+            scores = wordScores;
+
+            if (scores.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+
+        final ArrayList<Hit> hits = new ArrayList<>(scores.size());
+        for (Map.Entry<Preference, Integer> entry : scores.entrySet()) {
+            hits.add(new Hit(entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(hits, new Comparator<Hit>() {
+            @Override
+            public int compare(Hit o1, Hit o2) {
+                if (o1.mScore != o2.mScore) {
+                    return o1.mScore > o2.mScore ? -1 : 1;
+                }
+                return o1.mPreference.compareTo(o2.mPreference);
+            }
+        });
+
+        return hits.size() > maxResults ? hits.subList(0, maxResults) : hits;
+    }
+
+    private static void addScores(HashMap<Preference, Integer> wordScores,
+            HashMap<Preference, Integer> scores, HashMap<Preference, Integer> postings,
+            int multiplier, int divisor) {
+        for (Map.Entry<Preference, Integer> posting : postings.entrySet()) {
+            final Preference preference = posting.getKey();
+            if (scores != null && !scores.containsKey(preference)) {
+                continue;
+            }
+
+            final int score = Math.max(1, posting.getValue() * multiplier / divisor);
+            final Integer current = wordScores.get(preference);
+            if (current == null || current < score) {
+                wordScores.put(preference, score);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of typos tolerated in a query word of this length.
+     */
+    private static int getMaxDistance(String word) {
+        final int length = word.length();
+        return length < 4 ? 0 : (length < 8 ? 1 : 2);
+    }
+
+    /**
+     * Returns the indexed tokens that share enough trigrams with the word to be within
+     * its edit distance.
+     */
+    private List<String> findFuzzyCandidates(String word) {
+        final List<String> trigrams = trigrams(word);
+        final HashMap<String, Integer> shared = new HashMap<>();
+        for (String trigram : trigrams) {
+            final HashSet<String> tokens = mTrigrams.get(trigram);
+            if (tokens == null) {
+                continue;
+            }
+
+            for (String token : tokens) {
+                final Integer count = shared.get(token);
+                shared.put(token, count == null ? 1 : count + 1);
+            }
+        }
+
+        // Each edit changes at most three trigrams
+        final int minShared = trigrams.size() - 3 * getMaxDistance(word);
+        final ArrayList<String> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : shared.entrySet()) {
+            if (entry.getValue() >= minShared) {
+                candidates.add(entry.getKey());
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the Levenshtein distance between two strings, or {@code maxDistance + 1} if it
+     * is larger than {@code maxDistance}.
+     */
+    static int editDistance(String a, String b, int maxDistance) {
+        if (Math.abs(a.length() - b.length()) > maxDistance) {
+            return maxDistance + 1;
+        }
+
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                final int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1),
+                        previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+
+            if (rowMin > maxDistance) {
+                return maxDistance + 1;
+            }
+
+            final int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        return Math.min(previous[b.length()], maxDistance + 1);
+    }
+
+    private static List<String> trigrams(String token) {
+        final String padded = "$" + token + "$";
+        final ArrayList<String> trigrams = new ArrayList<>(padded.length() - 2);
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    private void addTrigrams(String token) {
+        for (String trigram : trigrams(token)) {
+            HashSet<String> tokens = mTrigrams.get(trigram);
+            if (tokens == null) {
+                tokens = new HashSet<>();
+                mTrigrams.put(trigram, tokens);
+            }
+            tokens.add(token);
+        }
+    }
+
+    private void removeTrigrams(String token) {
+        for (String trigram : trigrams(token)) {
+            final HashSet<String> tokens = mTrigrams.get(trigram);
+            if (tokens != null) {
+                tokens.remove(token);
+                if (tokens.isEmpty()) {
+                    mTrigrams.remove(trigram);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes a preference and all its children.
+     */
+    void addAll(Preference preference) {
+        update(preference);
+
+        if (preference instanceof PreferenceGroup) {
+            final PreferenceGroup group = (PreferenceGroup) preference;
+            final int preferenceCount = group.getPreferenceCount();
+            for (int i = 0; i < preferenceCount; i++) {
+                addAll(group.getPreference(i));
+            }
+        }
+    }
+
+    /**
+     * Indexes a preference, replacing what was indexed for it before.
+     */
+    void update(Preference preference) {
+        remove(preference);
+
+        final HashMap<String, Integer> tokens = new HashMap<>();
+        addTokens(tokens, preference.getTitle(), WEIGHT_TITLE);
+        addTokens(tokens, preference.getSummary(), WEIGHT_SUMMARY);
+        final CharSequence[] entries = preference.getSearchableEntries();
+        if (entries != null) {
+            for (CharSequence entry : entries) {
+                addTokens(tokens, entry, WEIGHT_ENTRIES);
+            }
+        }
+        addTokens(tokens, preference.getKey(), WEIGHT_KEY);
+
+        if (tokens.isEmpty()) {
+            return;
+        }
+
+        mTokens.put(preference, tokens);
+        for (Map.Entry<String, Integer> token : tokens.entrySet()) {
+            HashMap<Preference, Integer> postings = mPostings.get(token.getKey());
+            if (postings == null) {
+                postings = new HashMap<>();
+                mPostings.put(token.getKey(), postings);
+                addTrigrams(token.getKey());
+            }
+            postings.put(preference, token.getValue());
+        }
+    }
+
+    /**
+     * Removes a preference from the index. Its children are not removed.
+     */
+    void remove(Preference preference) {
+        final HashMap<String, Integer> tokens = mTokens.remove(preference);
+        if (tokens == null) {
+            return;
+        }
+
+        for (String token : tokens.keySet()) {
+            final HashMap<Preference, Integer> postings = mPostings.get(token);
+            if (postings != null) {
+                postings.remove(preference);
+                if (postings.isEmpty()) {
+                    mPostings.remove(token);
+                    removeTrigrams(token);
+                }
+            }
+        }
+    }
+
+    private static void addTokens(HashMap<String, Integer> tokens, CharSequence text,
+            int weight) {
+        if (TextUtils.isEmpty(text)) {
+            return;
+        }
+
+        for (String token : tokenize(text)) {
+            final Integer current = tokens.get(token);
+            if (current == null || current < weight) {
+                tokens.put(token, weight);
+            }
+        }
+    }
+
+    /**
+     * Splits text into lower case runs of letters and digits.
+     */
+    static List<String> tokenize(CharSequence text) {
+        return tokenize(text, Locale.getDefault());
+    }
+
+    /**
+     * Splits text into runs of letters and digits, lower cased with the given locale.
+     */
+    static List<String> tokenize(CharSequence text, Locale locale) {
+        final ArrayList<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+
+        final String lower = text.toString().toLowerCase(locale);
+        final int length = lower.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && Character.isLetterOrDigit(lower.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
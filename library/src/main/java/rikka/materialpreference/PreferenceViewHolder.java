@@ -31,6 +31,25 @@ public class PreferenceViewHolder extends RecyclerView.ViewHolder {
     private boolean mDividerAllowedAbove;
     private boolean mDividerAllowedBelow;
 
+    /**
+     * The preference last bound to this holder, and its state version at the time.
+     *
+     * @see #isBoundTo(Preference, int)
+     */
+    private Preference mBoundPreference;
+    private int mBoundStateVersion;
+
+    /**
+     * The enabled state last applied to the views of this holder.
+     */
+    private static final int ENABLED_UNKNOWN = -1;
+    private int mBoundEnabledState = ENABLED_UNKNOWN;
+
+    /**
+     * The icon currently loading into the icon view of this holder.
+     */
+    private PreferenceIconLoader.Request mIconRequest;
+
     /* package */ PreferenceViewHolder(View itemView) {
         super(itemView);
 
@@ -61,6 +80,67 @@ public class PreferenceViewHolder extends RecyclerView.ViewHolder {
         }
     }
 
+    /**
+     * Returns whether this holder already shows the given preference in the given state, so
+     * that binding it again only needs to refresh the title and summary.
+     *
+     * @param preference The preference being bound.
+     * @param stateVersion The state version of the preference.
+     * @return Whether the holder is up to date.
+     */
+    boolean isBoundTo(Preference preference, int stateVersion) {
+        return mBoundPreference == preference && mBoundStateVersion == stateVersion;
+    }
+
+    /**
+     * Records the preference and state version that this holder now shows.
+     */
+    void setBoundTo(Preference preference, int stateVersion) {
+        mBoundPreference = preference;
+        mBoundStateVersion = stateVersion;
+    }
+
+    /**
+     * Returns whether the given enabled state has already been applied to the views of this
+     * holder.
+     */
+    boolean isEnabledStateApplied(boolean enabled) {
+        return mBoundEnabledState == (enabled ? 1 : 0);
+    }
+
+    /**
+     * Records the enabled state applied to the views of this holder.
+     */
+    void setEnabledStateApplied(boolean enabled) {
+        mBoundEnabledState = enabled ? 1 : 0;
+    }
+
+    /**
+     * Returns the icon currently loading into the icon view of this holder.
+     */
+    PreferenceIconLoader.Request getIconRequest() {
+        return mIconRequest;
+    }
+
+    /**
+     * Sets the icon loading into the icon view of this holder, cancelling the previous one.
+     */
+    void setIconRequest(PreferenceIconLoader.Request request) {
+        if (mIconRequest != null && mIconRequest != request) {
+            mIconRequest.cancel();
+        }
+        mIconRequest = request;
+    }
+
+    /**
+     * Called when this holder is recycled. Cancels pending work and forgets the bound
+     * preference, so the next bind is a full one.
+     */
+    void onRecycled() {
+        setIconRequest(null);
+        mBoundPreference = null;
+    }
+
     /**
      * Dividers are only drawn between items if both items allow it, or above the first and below
      * the last item if that item allows it.
@@ -0,0 +1,80 @@
+package rikka.materialpreference;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs work that prepares preferences for display, such as text layouts and icons, on a
+ * background thread, and delivers results back on the main thread. Bitmap decoding, which
+ * mostly waits on I/O, runs on a separate small pool.
+ */
+final class PreferenceWorker {
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "PreferenceWorker");
+                }
+            });
+
+    private static final ExecutorService sDecodeExecutor = Executors.newFixedThreadPool(2,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "PreferenceDecoder");
+                }
+            });
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private PreferenceWorker() {
+    }
+
+    /**
+     * Runs a task on the background thread.
+     *
+     * @param task The task to run.
+     * @return A future that can be used to cancel the task.
+     */
+    static Future<?> execute(Runnable task) {
+        return sExecutor.submit(task);
+    }
+
+    /**
+     * Runs a decoding task on the decoder pool.
+     *
+     * @param task The task to run.
+     * @return A future that can be used to cancel the task.
+     */
+    static Future<?> decode(Runnable task) {
+        return sDecodeExecutor.submit(task);
+    }
+
+    /**
+     * Runs a task on the main thread.
+     *
+     * @param task The task to run.
+     */
+    static void postToMainThread(Runnable task) {
+        sMainHandler.post(task);
+    }
+}
@@ -18,16 +18,20 @@ package rikka.materialpreference;
 
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.res.TypedArray;
-import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.provider.Settings.System;
 import android.support.v4.content.res.TypedArrayUtils;
 import android.text.TextUtils;
 import android.util.AttributeSet;
+import android.util.JsonReader;
+import android.util.JsonWriter;
 import android.util.Log;
 
+import java.io.IOException;
+
 /**
  * A {@link Preference} that allows the user to choose a ringtone from those on the device.
  * The chosen ringtone's URI will be persisted as a string.
@@ -47,7 +51,7 @@ public class RingtonePreference extends Preference implements
 
     private static final String TAG = "RingtonePreference";
 
-    private String mSummary;
+    private SummaryFormatter mSummaryFormatter;
     private String mValue;
     private Uri mUri;
     private String mSummaryNone;
@@ -58,6 +62,36 @@ public class RingtonePreference extends Preference implements
 
     private int mRequestCode;
 
+    /**
+     * The URI whose title is the value, or null if the value was not set from a URI.
+     */
+    private Uri mTitleUri;
+
+    private final RingtoneTitleCache.OnTitlesChangedListener mTitlesChangedListener =
+            new RingtoneTitleCache.OnTitlesChangedListener() {
+                @Override
+                public void onTitleResolved(Uri uri, String title) {
+                    if (uri.equals(mTitleUri)) {
+                        updateValue(title);
+                    }
+                }
+
+                @Override
+                public void onTitleUnavailable(Uri uri) {
+                    if (uri.equals(mTitleUri)) {
+                        updateValue(getContext().getString(
+                                R.string.ringtone_preference_summary_unknown));
+                    }
+                }
+
+                @Override
+                public void onTitlesInvalidated() {
+                    if (mTitleUri != null) {
+                        RingtoneTitleCache.resolve(getContext(), mTitleUri);
+                    }
+                }
+            };
+
     public RingtonePreference(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
         super(context, attrs, defStyleAttr, defStyleRes);
 
@@ -79,8 +113,8 @@ public class RingtonePreference extends Preference implements
         a = context.obtainStyledAttributes(attrs,
                 R.styleable.Preference, defStyleAttr, defStyleRes);
 
-        mSummary = TypedArrayUtils.getString(a, R.styleable.Preference_summary,
-                R.styleable.Preference_android_summary);
+        mSummaryFormatter = SummaryFormatter.update(null, TypedArrayUtils.getString(a,
+                R.styleable.Preference_summary, R.styleable.Preference_android_summary));
 
         a.recycle();
     }
@@ -203,6 +237,7 @@ public class RingtonePreference extends Preference implements
     protected void onSaveRingtone(Uri ringtoneUri) {
         persistString(ringtoneUri != null ? ringtoneUri.toString() : "");
         setValue(ringtoneUri);
+        notifyValueChanged();
     }
 
     /**
@@ -219,6 +254,11 @@ public class RingtonePreference extends Preference implements
         return !TextUtils.isEmpty(uriString) ? Uri.parse(uriString) : null;
     }
 
+    @Override
+    protected Object getPredicateValue() {
+        return shouldPersist() ? getPersistedString(null) : null;
+    }
+
     @Override
     protected Object onGetDefaultValue(TypedArray a, int index) {
         return a.getString(index);
@@ -250,6 +290,19 @@ public class RingtonePreference extends Preference implements
         }
     }
 
+    @Override
+    protected boolean onExportValue(JsonWriter writer) throws IOException {
+        writer.name(getKey()).value(getPersistedString(""));
+        return true;
+    }
+
+    @Override
+    protected boolean onImportValue(JsonReader reader, SharedPreferences.Editor editor)
+            throws IOException {
+        editor.putString(getKey(), reader.nextString());
+        return true;
+    }
+
     /**
      * Returns the summary of this RingtonePreference. If the summary
      * has a {@linkplain java.lang.String#format String formatting}
@@ -261,10 +314,10 @@ public class RingtonePreference extends Preference implements
     @Override
     public CharSequence getSummary() {
         final CharSequence value = mValue;
-        if (mSummary == null) {
+        if (mSummaryFormatter == null) {
             return super.getSummary();
         } else {
-            return String.format(mSummary, value == null ? "" : value);
+            return mSummaryFormatter.format(value);
         }
     }
 
@@ -281,27 +334,44 @@ public class RingtonePreference extends Preference implements
     @Override
     public void setSummary(CharSequence summary) {
         super.setSummary(summary);
-        if (summary == null && mSummary != null) {
-            mSummary = null;
-        } else if (summary != null && !summary.equals(mSummary)) {
-            mSummary = summary.toString();
-        }
+        mSummaryFormatter = SummaryFormatter.update(mSummaryFormatter, summary);
     }
 
+    /**
+     * Sets the value to the title of a ringtone. The title is resolved in the background
+     * unless it is cached, a placeholder is shown meanwhile.
+     *
+     * @param uri The ringtone URI, or null for none.
+     */
     public void setValue(Uri uri) {
-        if (uri != null) {
-            Ringtone rng = RingtoneManager.getRingtone(getContext(), uri);
-            if (rng != null) {
-                setValue(rng.getTitle(getContext()));
-            }
-        } else {
+        if (uri == null) {
             setValue(mSummaryNone == null ? "" : mSummaryNone);
+            return;
+        }
+
+        mTitleUri = uri;
+        // Also for a cached title, so that it is resolved again when the caches are cleared
+        RingtoneTitleCache.addListener(mTitlesChangedListener);
+        final String title = RingtoneTitleCache.peek(uri);
+        if (title != null) {
+            updateValue(title);
+        } else {
+            updateValue(getContext().getString(R.string.ringtone_preference_summary_loading));
+            RingtoneTitleCache.resolve(getContext(), uri);
         }
-        notifyChanged();
     }
 
     public void setValue(String value) {
-        mValue = value;
+        mTitleUri = null;
+        RingtoneTitleCache.removeListener(mTitlesChangedListener);
+        updateValue(value);
+    }
+
+    private void updateValue(String value) {
+        if (!TextUtils.equals(mValue, value)) {
+            mValue = value;
+            notifyChanged();
+        }
     }
 
     @Override
@@ -312,6 +382,13 @@ public class RingtonePreference extends Preference implements
         mRequestCode = preferenceManager.getNextRequestCode();
     }
 
+    @Override
+    protected void onPrepareForRemoval() {
+        super.onPrepareForRemoval();
+
+        RingtoneTitleCache.removeListener(mTitlesChangedListener);
+    }
+
     public boolean onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == mRequestCode) {
             if (data != null) {
@@ -0,0 +1,234 @@
+package rikka.materialpreference;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.media.Ringtone;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.provider.Settings;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Resolves the titles of ringtone URIs off the main thread for {@link RingtonePreference}.
+ * <p>
+ * Titles are cached in memory and in a small {@link SharedPreferences} file, so a screen can
+ * show them without querying the media provider. The file is emptied when it would grow
+ * past {@value #MAX_PERSISTED_TITLES} titles. Both caches are cleared when the media
+ * store or the default sounds change. A title read from the file may predate changes made
+ * while the process was not running, so it is shown at once and then resolved again.
+ */
+final class RingtoneTitleCache {
+
+    private static final String TAG = "RingtoneTitleCache";
+
+    private static final String PREFERENCES_NAME = "rikka.materialpreference.ringtone_titles";
+
+    private static final int MAX_PERSISTED_TITLES = 64;
+
+    /**
+     * Notified on the main thread when a title is resolved or the caches are cleared.
+     */
+    interface OnTitlesChangedListener {
+        /**
+         * Called when the title of a URI is known.
+         *
+         * @param uri The ringtone URI.
+         * @param title The title.
+         */
+        void onTitleResolved(Uri uri, String title);
+
+        /**
+         * Called when the title of a URI cannot be resolved and none is cached.
+         *
+         * @param uri The ringtone URI.
+         */
+        void onTitleUnavailable(Uri uri);
+
+        /**
+         * Called when cached titles may be out of date and should be resolved again.
+         */
+        void onTitlesInvalidated();
+    }
+
+    private static final LruCache<String, String> sTitles = new LruCache<>(32);
+
+    private static final Set<OnTitlesChangedListener> sListeners =
+            Collections.newSetFromMap(new WeakHashMap<OnTitlesChangedListener, Boolean>());
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private static Context sContext;
+
+    /**
+     * Incremented on every invalidation, so results resolved before it are not cached.
+     */
+    private static volatile int sGeneration;
+
+    private RingtoneTitleCache() {
+    }
+
+    /**
+     * Returns the title of a URI if it is cached in memory.
+     *
+     * @param uri The ringtone URI.
+     * @return The title, or null if it is not cached.
+     */
+    static String peek(Uri uri) {
+        return sTitles.get(cacheKey(uri));
+    }
+
+    /**
+     * Resolves the title of a URI in the background. The listener is called with the title
+     * from the persistent cache if there is one, and again if the resolved title differs.
+     * If the title cannot be resolved and none was persisted, the listener is told so.
+     *
+     * @param context A context.
+     * @param uri The ringtone URI.
+     */
+    static void resolve(Context context, final Uri uri) {
+        ensureObserving(context);
+
+        final Context appContext = sContext;
+        final int generation = sGeneration;
+        PreferenceWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String key = cacheKey(uri);
+                final SharedPreferences persisted = getPersistedTitles(appContext);
+                final String persistedTitle = persisted.getString(key, null);
+                if (persistedTitle != null) {
+                    deliver(uri, persistedTitle);
+                }
+
+                String title = null;
+                try {
+                    final Ringtone ringtone = RingtoneManager.getRingtone(appContext, uri);
+                    if (ringtone != null) {
+                        title = ringtone.getTitle(appContext);
+                    }
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Cannot resolve title of " + uri, e);
+                }
+
+                if (title == null) {
+                    if (persistedTitle == null) {
+                        deliverUnavailable(uri);
+                    }
+                    return;
+                }
+
+                if (generation != sGeneration) {
+                    return;
+                }
+
+                sTitles.put(key, title);
+                if (!title.equals(persistedTitle)) {
+                    final SharedPreferences.Editor editor = persisted.edit();
+                    if (persistedTitle == null
+                            && persisted.getAll().size() >= MAX_PERSISTED_TITLES) {
+                        editor.clear();
+                    }
+                    editor.putString(key, title).apply();
+                    deliver(uri, title);
+                }
+            }
+        });
+    }
+
+    /**
+     * Registers a listener. Listeners are held weakly.
+     */
+    static void addListener(OnTitlesChangedListener listener) {
+        sListeners.add(listener);
+    }
+
+    static void removeListener(OnTitlesChangedListener listener) {
+        sListeners.remove(listener);
+    }
+
+    private static void deliver(final Uri uri, final String title) {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnTitlesChangedListener listener : new ArrayList<>(sListeners)) {
+                    listener.onTitleResolved(uri, title);
+                }
+            }
+        });
+    }
+
+    private static void deliverUnavailable(final Uri uri) {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnTitlesChangedListener listener : new ArrayList<>(sListeners)) {
+                    listener.onTitleUnavailable(uri);
+                }
+            }
+        });
+    }
+
+    /**
+     * Titles such as "Default ringtone" are localized, so they are cached per locale.
+     */
+    private static String cacheKey(Uri uri) {
+        return Locale.getDefault().toString() + '|' + uri;
+    }
+
+    private static SharedPreferences getPersistedTitles(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static synchronized void ensureObserving(Context context) {
+        if (sContext != null) {
+            return;
+        }
+        sContext = context.getApplicationContext();
+
+        final ContentObserver observer = new ContentObserver(sMainHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        };
+        final ContentResolver resolver = sContext.getContentResolver();
+        resolver.registerContentObserver(
+                MediaStore.Audio.Media.INTERNAL_CONTENT_URI, true, observer);
+        resolver.registerContentObserver(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, observer);
+        resolver.registerContentObserver(Settings.System.DEFAULT_RINGTONE_URI, false, observer);
+        resolver.registerContentObserver(
+                Settings.System.DEFAULT_NOTIFICATION_URI, false, observer);
+        resolver.registerContentObserver(
+                Settings.System.DEFAULT_ALARM_ALERT_URI, false, observer);
+    }
+
+    private static void invalidate() {
+        sGeneration++;
+        sTitles.evictAll();
+
+        final Context context = sContext;
+        PreferenceWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                getPersistedTitles(context).edit().clear().apply();
+            }
+        });
+
+        for (OnTitlesChangedListener listener : new ArrayList<>(sListeners)) {
+            listener.onTitlesInvalidated();
+        }
+    }
+}
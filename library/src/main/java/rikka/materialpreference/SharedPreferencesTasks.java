@@ -0,0 +1,106 @@
+package rikka.materialpreference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs work on a {@link android.content.SharedPreferences} file off the main thread.
+ * <p>
+ * Tasks for all files run one after another on a single background thread, so the last
+ * task submitted for a file completes after every earlier one. {@link #await(String)}
+ * lets a reader block until that work is done. A failed task is kept until an awaiter has
+ * seen its exception, even if later tasks were submitted for the same file.
+ */
+final class SharedPreferencesTasks {
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "PreferenceManager");
+                }
+            });
+
+    /**
+     * The tasks submitted for each SharedPreferences name that no awaiter has consumed yet,
+     * in submission order.
+     */
+    private static final Map<String, List<Future<?>>> sPendingTasks = new HashMap<>();
+
+    private SharedPreferencesTasks() {
+    }
+
+    /**
+     * Runs a task for the given SharedPreferences file on the background thread.
+     *
+     * @param name The name of the SharedPreferences file the task works on.
+     * @param task The task to run.
+     */
+    static void submit(String name, Runnable task) {
+        synchronized (sPendingTasks) {
+            List<Future<?>> futures = sPendingTasks.get(name);
+            if (futures == null) {
+                futures = new ArrayList<>(2);
+                sPendingTasks.put(name, futures);
+            }
+            futures.add(sExecutor.submit(task));
+        }
+    }
+
+    /**
+     * Blocks until every task submitted for the given SharedPreferences file has run.
+     * Returns immediately if there is nothing pending.
+     *
+     * @param name The name of the SharedPreferences file.
+     * @throws RuntimeException If a task failed, the exception of the first task that
+     *         failed. It is thrown after the later tasks have run too.
+     */
+    static void await(String name) {
+        final List<Future<?>> futures;
+        synchronized (sPendingTasks) {
+            final List<Future<?>> pending = sPendingTasks.get(name);
+            if (pending == null) {
+                return;
+            }
+            futures = new ArrayList<>(pending);
+        }
+
+        Throwable failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Leave the rest pending for the next awaiter
+                break;
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+
+            synchronized (sPendingTasks) {
+                final List<Future<?>> pending = sPendingTasks.get(name);
+                if (pending != null) {
+                    pending.remove(future);
+                    if (pending.isEmpty()) {
+                        sPendingTasks.remove(name);
+                    }
+                }
+            }
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package rikka.materialpreference;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.transition.Transition;
+import android.transition.TransitionInflater;
+import android.transition.TransitionSet;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import android.widget.PopupWindow;
+
+/**
+ * The popup window of {@link SimpleMenuPreference}, created on first use and shared by every
+ * simple menu of a {@link PreferenceManager}, since only one can be open at a time.
+ *
+ * @see PreferenceManager#getSimpleMenuPopup(Context)
+ */
+final class SimpleMenuPopup {
+
+    private final PopupWindow mPopupWindow;
+    private final RecyclerView mRecyclerView;
+    private final Rect mEpicenterBounds = new Rect();
+    private Transition mEnterTransition;
+
+    /**
+     * The preference the popup was last shown for.
+     */
+    private Object mOwner;
+
+    SimpleMenuPopup(Context context) {
+        mRecyclerView = (RecyclerView) LayoutInflater.from(context)
+                .inflate(R.layout.simple_menu_recycler_view, null);
+        mRecyclerView.setFocusable(true);
+        mRecyclerView.setLayoutManager(
+                new LinearLayoutManager(context, LinearLayoutManager.VERTICAL, false));
+
+        mPopupWindow = new PopupWindow(context);
+        mPopupWindow.setContentView(mRecyclerView);
+        mPopupWindow.setWidth(ViewGroup.LayoutParams.WRAP_CONTENT);
+        mPopupWindow.setHeight(ViewGroup.LayoutParams.WRAP_CONTENT);
+        mPopupWindow.setFocusable(true);
+        mPopupWindow.setOutsideTouchable(false);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            TransitionSet set = (TransitionSet) TransitionInflater.from(context)
+                    .inflateTransition(R.transition.simple_menu_enter);
+            ((ForceEpicenterTranslateClipReveal) set.getTransitionAt(0))
+                    .setEpicenterBounds(mEpicenterBounds);
+            mEnterTransition = set;
+        }
+    }
+
+    PopupWindow getPopupWindow() {
+        return mPopupWindow;
+    }
+
+    RecyclerView getRecyclerView() {
+        return mRecyclerView;
+    }
+
+    /**
+     * Returns the enter transition, whose epicenter is {@link #getEpicenterBounds()}.
+     *
+     * @return The transition, or null before Android N.
+     */
+    Transition getEnterTransition() {
+        return mEnterTransition;
+    }
+
+    Rect getEpicenterBounds() {
+        return mEpicenterBounds;
+    }
+
+    /**
+     * Prepares the popup to be shown for a preference, dismissing it if it is showing for
+     * another one.
+     *
+     * @param owner The preference.
+     * @param adapter The adapter of its menu items.
+     * @param listPadding The vertical padding of the list.
+     * @param background The background of the popup.
+     */
+    void prepare(Object owner, RecyclerView.Adapter adapter, int listPadding,
+            Drawable background) {
+        if (mOwner != owner && mPopupWindow.isShowing()) {
+            mPopupWindow.dismiss();
+        }
+        mOwner = owner;
+
+        if (mRecyclerView.getAdapter() != adapter) {
+            mRecyclerView.setAdapter(adapter);
+        }
+        mRecyclerView.setPadding(0, listPadding, 0, listPadding);
+        mPopupWindow.setBackgroundDrawable(background);
+    }
+
+    /**
+     * Returns whether the popup is showing for the given preference.
+     */
+    boolean isShowingFor(Object owner) {
+        return mOwner == owner && mPopupWindow.isShowing();
+    }
+
+    /**
+     * Dismisses the popup if it is showing for the given preference.
+     */
+    void dismissFor(Object owner) {
+        if (isShowingFor(owner)) {
+            mPopupWindow.dismiss();
+        }
+    }
+}
@@ -4,7 +4,6 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.ContextWrapper;
 import android.content.res.TypedArray;
-import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
@@ -12,13 +11,9 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
 import android.support.annotation.StyleRes;
-import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.text.TextPaint;
 import android.transition.Fade;
-import android.transition.Transition;
-import android.transition.TransitionInflater;
-import android.transition.TransitionSet;
 import android.util.AttributeSet;
 import android.util.TypedValue;
 import android.view.Gravity;
@@ -29,11 +24,7 @@ import android.view.WindowManager;
 import android.widget.CheckedTextView;
 import android.widget.PopupWindow;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.WeakHashMap;
 
 /**
  * A version of {@link ListPreference} that presents the options in a drop down menu rather than a dialog.
@@ -45,7 +36,11 @@ public class SimpleMenuPreference extends ListPreference {
     private final Adapter mAdapter;
 
     private PreferenceViewHolder mViewHolder;
-    private PopupWindow mPopupWindow;
+
+    /**
+     * The popup this preference was last shown in, see {@link #obtainPopup()}.
+     */
+    private SimpleMenuPopup mPopup;
 
     private final int POPUP_PADDING_X;
     private final int POPUP_PADDING_Y;
@@ -54,8 +49,6 @@ public class SimpleMenuPreference extends ListPreference {
     private final Drawable POPUP_BACKGROUND;
     private final float POPUP_ELEVATION;
 
-    private RecyclerView mRecyclerView;
-
     private boolean mRestorePopup;
 
     private boolean mShouldCalcUseDialog;
@@ -63,8 +56,40 @@ public class SimpleMenuPreference extends ListPreference {
 
     private int mPopupWidth;
 
-    private Transition mEnterTransition;
-    private Rect mEpicenterBounds = new Rect();
+    /**
+     * The view {@link #mResetUseDialogRunnable} is posted to, or null if it is not pending.
+     */
+    private View mResetUseDialogView;
+
+    private final Runnable mResetUseDialogRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mResetUseDialogView = null;
+            resetUseDialog();
+        }
+    };
+
+    /**
+     * The widest entry text, or -1 if not measured yet.
+     */
+    private int mMaxEntryWidth = -1;
+
+    /**
+     * Measured entry widths, keyed by the identity of the entries array.
+     */
+    private static final WeakHashMap<CharSequence[], EntryWidth> sEntryWidths =
+            new WeakHashMap<>();
+
+    private static class EntryWidth {
+        final float textSize;
+        final int width;
+
+        EntryWidth(float textSize, int width) {
+            this.textSize = textSize;
+            this.width = width;
+        }
+    }
+
 
     public SimpleMenuPreference(Context context) {
         this(context, null);
@@ -103,7 +128,6 @@ public class SimpleMenuPreference extends ListPreference {
 
         mContext = context;
         mAdapter = createAdapter();
-        mPopupWindow = createPopupMenu();
         a.recycle();
 
         updateEntries();
@@ -113,33 +137,26 @@ public class SimpleMenuPreference extends ListPreference {
         return new Adapter();
     }
 
-    private PopupWindow createPopupMenu() {
-        mRecyclerView = (RecyclerView) LayoutInflater.from(mContext).inflate(R.layout.simple_menu_recycler_view, null);
-        mRecyclerView.setPadding(0, LIST_PADDING, 0, LIST_PADDING);
-        mRecyclerView.setFocusable(true);
-        mRecyclerView.setLayoutManager(new LinearLayoutManager(getContext(), LinearLayoutManager.VERTICAL, false));
-        mRecyclerView.setAdapter(mAdapter);
-
-        PopupWindow popupWindow = new PopupWindow(mContext);
-        popupWindow.setContentView(mRecyclerView);
-        popupWindow.setWidth(ViewGroup.LayoutParams.WRAP_CONTENT);
-        popupWindow.setBackgroundDrawable(POPUP_BACKGROUND);
-        popupWindow.setHeight(ViewGroup.LayoutParams.WRAP_CONTENT);
-        popupWindow.setFocusable(true);
-        popupWindow.setOutsideTouchable(false);
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            TransitionSet set = (TransitionSet) TransitionInflater.from(mContext).inflateTransition(R.transition.simple_menu_enter);
-            ((ForceEpicenterTranslateClipReveal) set.getTransitionAt(0)).setEpicenterBounds(mEpicenterBounds);
-            popupWindow.setEnterTransition(set);
-            mEnterTransition = set;
-        }
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            popupWindow.setElevation(POPUP_ELEVATION);
-        }
+    /**
+     * Returns the adapter of the menu items.
+     */
+    RecyclerView.Adapter<?> getMenuAdapter() {
+        return mAdapter;
+    }
 
-        return popupWindow;
+    /**
+     * Returns the popup of the {@link PreferenceManager}, prepared for this preference. The
+     * popup is created on first use and shared with the other simple menus of the screen.
+     */
+    private SimpleMenuPopup obtainPopup() {
+        final PreferenceManager preferenceManager = getPreferenceManager();
+        if (preferenceManager != null) {
+            mPopup = preferenceManager.getSimpleMenuPopup(mContext);
+        } else if (mPopup == null) {
+            mPopup = new SimpleMenuPopup(mContext);
+        }
+        mPopup.prepare(this, mAdapter, LIST_PADDING, POPUP_BACKGROUND);
+        return mPopup;
     }
 
     @Override
@@ -148,9 +165,8 @@ public class SimpleMenuPreference extends ListPreference {
             return;
         }
 
-        if (mPopupWindow == null) {
-            return;
-        }
+        // In case the decision is still pending from a bind
+        resetUseDialog();
 
         if (mUseDialog) {
             showDialog();
@@ -178,7 +194,11 @@ public class SimpleMenuPreference extends ListPreference {
      * Show dialog
      */
     private void showDialog() {
-        int index = getValueIndex();
+        final SimpleMenuPopup popup = obtainPopup();
+        final PopupWindow popupWindow = popup.getPopupWindow();
+        final RecyclerView recyclerView = popup.getRecyclerView();
+
+        int index = mAdapter.updateSelectedIndex();
         index = index < 0 ? 0 : index;
 
         final int height = LIST_ITEM_HEIGHT * getEntries().length + LIST_PADDING * 2;
@@ -187,32 +207,44 @@ public class SimpleMenuPreference extends ListPreference {
         int parentHeight = parent.getHeight();
 
         if (height > parentHeight) {
-            mPopupWindow.setHeight(parentHeight - LIST_PADDING * 2);
-            mRecyclerView.setOverScrollMode(View.OVER_SCROLL_IF_CONTENT_SCROLLS);
-            mRecyclerView.scrollToPosition(index);
+            popupWindow.setHeight(parentHeight - LIST_PADDING * 2);
+            recyclerView.setOverScrollMode(View.OVER_SCROLL_IF_CONTENT_SCROLLS);
+            recyclerView.scrollToPosition(index);
         } else {
-            mRecyclerView.setOverScrollMode(View.OVER_SCROLL_NEVER);
+            recyclerView.setOverScrollMode(View.OVER_SCROLL_NEVER);
+            popupWindow.setHeight(ViewGroup.LayoutParams.WRAP_CONTENT);
         }
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            mPopupWindow.setElevation(48f);
+            popupWindow.setElevation(48f);
         }
-        mPopupWindow.setAnimationStyle(R.style.Animation_SimpleMenuCenter);
+        popupWindow.setAnimationStyle(R.style.Animation_SimpleMenuCenter);
         int width = mViewHolder.itemView.getWidth() - POPUP_PADDING_X * 2;
-        mPopupWindow.setWidth(width);
+        popupWindow.setWidth(width);
+
+        // The list may have been sized for a popup menu before
+        ViewGroup.LayoutParams lp = recyclerView.getLayoutParams();
+        if (lp != null) {
+            lp.width = ViewGroup.LayoutParams.MATCH_PARENT;
+            recyclerView.setLayoutParams(lp);
+        }
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            mPopupWindow.setEnterTransition(null);
+            popupWindow.setEnterTransition(null);
         }
 
-        mPopupWindow.showAtLocation(mViewHolder.itemView, Gravity.CENTER_VERTICAL, 0, 0);
+        popupWindow.showAtLocation(mViewHolder.itemView, Gravity.CENTER_VERTICAL, 0, 0);
     }
 
     /**
      * Show PopupMenu and calculate to align selected menu item over list item vertically
      */
     private void showPopupMenu() {
-        int index = getValueIndex();
+        final SimpleMenuPopup popup = obtainPopup();
+        final PopupWindow popupWindow = popup.getPopupWindow();
+        final RecyclerView recyclerView = popup.getRecyclerView();
+
+        int index = mAdapter.updateSelectedIndex();
         index = index < 0 ? 0 : index;
 
         Rect displayRect = new Rect();
@@ -252,17 +284,17 @@ public class SimpleMenuPreference extends ListPreference {
 
             // scroll to select item
             final int scroll = (int) (index * LIST_ITEM_HEIGHT - anchor_y + POPUP_PADDING_Y * 0.5);
-            mRecyclerView.post(new Runnable() {
+            recyclerView.post(new Runnable() {
                 @Override
                 public void run() {
-                    mRecyclerView.scrollBy(0, -popupHeight);
-                    mRecyclerView.scrollBy(0, scroll);
+                    recyclerView.scrollBy(0, -popupHeight);
+                    recyclerView.scrollBy(0, scroll);
                 }
             });
 
-            mRecyclerView.setOverScrollMode(View.OVER_SCROLL_IF_CONTENT_SCROLLS);
+            recyclerView.setOverScrollMode(View.OVER_SCROLL_IF_CONTENT_SCROLLS);
 
-            mPopupWindow.setHeight(parentHeight - LIST_PADDING * 2);
+            popupWindow.setHeight(parentHeight - LIST_PADDING * 2);
         } else {
             y_off = (int) (top + statusBarHeight + POPUP_PADDING_Y + anchor_y - LIST_PADDING * 0.5 - index * LIST_ITEM_HEIGHT);
 
@@ -275,19 +307,19 @@ public class SimpleMenuPreference extends ListPreference {
                 y_off = top + statusBarHeight + POPUP_PADDING_Y;
             }
 
-            mRecyclerView.setOverScrollMode(View.OVER_SCROLL_NEVER);
+            recyclerView.setOverScrollMode(View.OVER_SCROLL_NEVER);
 
-            mPopupWindow.setHeight(ViewGroup.LayoutParams.WRAP_CONTENT);
+            popupWindow.setHeight(ViewGroup.LayoutParams.WRAP_CONTENT);
         }
 
-        ViewGroup.LayoutParams lp = mRecyclerView.getLayoutParams();
+        ViewGroup.LayoutParams lp = recyclerView.getLayoutParams();
         if (lp == null) {
             lp = new ViewGroup.LayoutParams(mPopupWidth, RecyclerView.LayoutParams.WRAP_CONTENT);
         } else {
             lp.width = mPopupWidth;
         }
-        mRecyclerView.setLayoutParams(lp);
-        mPopupWindow.setWidth(mPopupWidth);
+        recyclerView.setLayoutParams(lp);
+        popupWindow.setWidth(mPopupWidth);
 
         // calc what animation should use
         @StyleRes int animationStyle;
@@ -321,19 +353,19 @@ public class SimpleMenuPreference extends ListPreference {
 
         epicenterBottom = epicenterTop;
 
-        mEpicenterBounds.set(epicenterLeft, epicenterTop, epicenterRight, epicenterBottom);
+        popup.getEpicenterBounds().set(epicenterLeft, epicenterTop, epicenterRight, epicenterBottom);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            mPopupWindow.setElevation(POPUP_ELEVATION);
+            popupWindow.setElevation(POPUP_ELEVATION);
         }
 
-        mPopupWindow.setAnimationStyle(animationStyle);
+        popupWindow.setAnimationStyle(animationStyle);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            mPopupWindow.setEnterTransition(mEnterTransition);
+            popupWindow.setEnterTransition(popup.getEnterTransition());
         }
 
-        mPopupWindow.showAtLocation(mViewHolder.itemView, Gravity.NO_GRAVITY, POPUP_PADDING_X, y_off);
+        popupWindow.showAtLocation(mViewHolder.itemView, Gravity.NO_GRAVITY, POPUP_PADDING_X, y_off);
     }
 
     @Override
@@ -345,10 +377,69 @@ public class SimpleMenuPreference extends ListPreference {
     private void updateEntries() {
         mAdapter.notifyDataSetChanged();
 
+        mMaxEntryWidth = -1;
+        final CharSequence[] entries = getEntries();
+        if (entries != null) {
+            final float textSize = getEntryTextSize();
+            mMaxEntryWidth = getCachedEntryWidth(entries, textSize);
+            if (mMaxEntryWidth < 0) {
+                // Measure ahead of the first bind, so the popup or dialog decision is cheap
+                PreferenceWorker.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final int width = measureEntryWidth(entries, textSize);
+                        PreferenceWorker.postToMainThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (getEntries() == entries && mMaxEntryWidth < 0) {
+                                    mMaxEntryWidth = width;
+                                    mShouldCalcUseDialog = true;
+                                    resetUseDialog();
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        }
+
         mShouldCalcUseDialog = true;
         resetUseDialog();
     }
 
+    private float getEntryTextSize() {
+        return 16 * mContext.getResources().getDisplayMetrics().scaledDensity;
+    }
+
+    private static int getCachedEntryWidth(CharSequence[] entries, float textSize) {
+        synchronized (sEntryWidths) {
+            final EntryWidth entryWidth = sEntryWidths.get(entries);
+            return entryWidth != null && entryWidth.textSize == textSize
+                    ? entryWidth.width : -1;
+        }
+    }
+
+    /**
+     * Measures the widest entry text and caches the result.
+     */
+    private static int measureEntryWidth(CharSequence[] entries, float textSize) {
+        final Rect bounds = new Rect();
+        final TextPaint textPaint = new TextPaint();
+        textPaint.setTextSize(textSize);
+
+        int maxWidth = 0;
+        for (CharSequence entry : entries) {
+            final String text = entry.toString();
+            textPaint.getTextBounds(text, 0, text.length(), bounds);
+            maxWidth = Math.max(maxWidth, bounds.width());
+        }
+
+        synchronized (sEntryWidths) {
+            sEntryWidths.put(entries, new EntryWidth(textSize, maxWidth));
+        }
+        return maxWidth;
+    }
+
     /**
      * Measure PopupWindow width and make sure if we should use dialog
      *
@@ -359,14 +450,14 @@ public class SimpleMenuPreference extends ListPreference {
             return false;
         }
 
-        List<CharSequence> list = new ArrayList<>();
-        list.addAll(Arrays.asList(getEntries()));
-        Collections.sort(list, new Comparator<CharSequence>() {
-            @Override
-            public int compare(CharSequence o1, CharSequence o2) {
-                return o2.length() - o1.length();
+        if (mMaxEntryWidth < 0) {
+            // Not measured in the background yet
+            final float textSize = getEntryTextSize();
+            mMaxEntryWidth = getCachedEntryWidth(getEntries(), textSize);
+            if (mMaxEntryWidth < 0) {
+                mMaxEntryWidth = measureEntryWidth(getEntries(), textSize);
             }
-        });
+        }
 
         int unit = (int) mContext.getResources().getDimension(R.dimen.simple_menu_unit);
         int maxUnits = mContext.getResources().getInteger(R.integer.simple_menu_max_units);
@@ -376,32 +467,14 @@ public class SimpleMenuPreference extends ListPreference {
             maxWidth = mViewHolder.itemView.getWidth() - POPUP_PADDING_X * 3;
         }
 
-        mPopupWidth = unit * 2;
-
-        Rect bounds = new Rect();
-        Paint textPaint = new TextPaint();
-        textPaint.setTextSize(16 * mContext.getResources().getDisplayMetrics().scaledDensity);
-
-        for (CharSequence chs : list) {
-            textPaint.getTextBounds(chs.toString(), 0, chs.length(), bounds);
-            int width = bounds.width() + POPUP_PADDING_X * 3;
-            //Log.d("SimpleMenuPreference", "" + width + " " + mPopupMaxWidth);
-
-            if (width > mPopupWidth) {
-                mPopupWidth = width;
-            }
-
-            if (width > maxWidth) {
-                return true;
-            }
+        final int width = mMaxEntryWidth + POPUP_PADDING_X * 3;
+        if (width > maxWidth) {
+            return true;
         }
 
         // a multiple of a 56dp unit
-        int w = 0;
-        while (mPopupWidth > w) {
-            w += unit;
-        }
-        mPopupWidth = w;
+        mPopupWidth = Math.max(unit * 2, width);
+        mPopupWidth = (mPopupWidth + unit - 1) / unit * unit;
 
         return false;
     }
@@ -411,13 +484,10 @@ public class SimpleMenuPreference extends ListPreference {
         setValue(getEntryValues()[index].toString());
     }
 
-    private int getValueIndex() {
-        return findIndexOfValue(getValue());
-    }
-
     @Override
     protected void notifyChanged() {
         super.notifyChanged();
+        mAdapter.updateSelectedIndex();
         mAdapter.notifyDataSetChanged();
     }
 
@@ -453,12 +523,14 @@ public class SimpleMenuPreference extends ListPreference {
             new RestoreRunnable(mViewHolder.itemView);
         }*/
 
-        mViewHolder.itemView.post(new Runnable() {
-            @Override
-            public void run() {
-                resetUseDialog();
+        // Decide after layout, once per pending decision however often the row is bound
+        if (mShouldCalcUseDialog && mResetUseDialogView != view.itemView) {
+            if (mResetUseDialogView != null) {
+                mResetUseDialogView.removeCallbacks(mResetUseDialogRunnable);
             }
-        });
+            mResetUseDialogView = view.itemView;
+            mResetUseDialogView.post(mResetUseDialogRunnable);
+        }
     }
 
     @Override
@@ -466,11 +538,10 @@ public class SimpleMenuPreference extends ListPreference {
         final Parcelable superState = super.onSaveInstanceState();
 
         final SavedState myState = new SavedState(superState);
-        myState.value =
-                mPopupWindow != null && mPopupWindow.isShowing() ? 1 : 0;
+        myState.value = mPopup != null && mPopup.isShowingFor(this) ? 1 : 0;
 
-        if (mPopupWindow != null && mPopupWindow.isShowing()) {
-            mPopupWindow.dismiss();
+        if (mPopup != null) {
+            mPopup.dismissFor(this);
         }
 
         return myState;
@@ -523,27 +594,26 @@ public class SimpleMenuPreference extends ListPreference {
 
     private class Adapter extends RecyclerView.Adapter<ViewHolder> {
 
+        /**
+         * The index of the checked item, updated when the menu is shown or the value changes.
+         */
+        private int mSelectedIndex = -1;
+
+        int updateSelectedIndex() {
+            mSelectedIndex = getValueIndex();
+            return mSelectedIndex;
+        }
+
         @Override
         public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
             return new ViewHolder(LayoutInflater.from(parent.getContext()).inflate(R.layout.simple_menu_item, parent, false));
         }
 
         @Override
-        public void onBindViewHolder(final ViewHolder holder, int position) {
+        public void onBindViewHolder(ViewHolder holder, int position) {
             holder.mCheckedTextView.setText(getEntries()[position]);
-            holder.mCheckedTextView.setChecked(position == findIndexOfValue(getValue()));
+            holder.mCheckedTextView.setChecked(position == mSelectedIndex);
             holder.mCheckedTextView.setMaxLines(mUseDialog ? 99 : 1);
-
-            holder.itemView.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View view) {
-                    setValueIndex(holder.getAdapterPosition());
-
-                    if (mPopupWindow != null && mPopupWindow.isShowing()) {
-                        mPopupWindow.dismiss();
-                    }
-                }
-            });
         }
 
         @Override
@@ -552,7 +622,7 @@ public class SimpleMenuPreference extends ListPreference {
         }
     }
 
-    private class ViewHolder extends RecyclerView.ViewHolder {
+    private class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
         public CheckedTextView mCheckedTextView;
 
@@ -560,6 +630,21 @@ public class SimpleMenuPreference extends ListPreference {
             super(itemView);
 
             mCheckedTextView = (CheckedTextView) itemView.findViewById(android.R.id.text1);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            final int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+
+            setValueIndex(position);
+
+            if (mPopup != null) {
+                mPopup.dismissFor(SimpleMenuPreference.this);
+            }
         }
     }
 }
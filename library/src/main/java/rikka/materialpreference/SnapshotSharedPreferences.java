@@ -0,0 +1,93 @@
+package rikka.materialpreference;
+
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only view of a {@link SharedPreferences} file backed by a single
+ * {@link SharedPreferences#getAll()} snapshot, so reads do not take the lock of the real
+ * file. Edits and listeners go to the real file.
+ * <p>
+ * Used by {@link PreferenceManager} while it resolves the initial values of a freshly
+ * inflated hierarchy.
+ */
+final class SnapshotSharedPreferences implements SharedPreferences {
+
+    private final SharedPreferences mSharedPreferences;
+    private final Map<String, ?> mValues;
+
+    SnapshotSharedPreferences(SharedPreferences sharedPreferences) {
+        mSharedPreferences = sharedPreferences;
+        mValues = sharedPreferences.getAll();
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<>(mValues);
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        final String v = (String) mValues.get(key);
+        return v != null ? v : defValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        final Set<String> v = (Set<String>) mValues.get(key);
+        return v != null ? v : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        final Integer v = (Integer) mValues.get(key);
+        return v != null ? v : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        final Long v = (Long) mValues.get(key);
+        return v != null ? v : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        final Float v = (Float) mValues.get(key);
+        return v != null ? v : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        final Boolean v = (Boolean) mValues.get(key);
+        return v != null ? v : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return mSharedPreferences.edit();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        mSharedPreferences.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        mSharedPreferences.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+}
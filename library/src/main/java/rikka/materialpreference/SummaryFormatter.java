@@ -0,0 +1,139 @@
+package rikka.materialpreference;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Formats a summary pattern such as {@code "Currently %s"} with a single value, as
+ * {@link String#format(String, Object...)} would.
+ * <p>
+ * Patterns that only use {@code %s}, {@code %1$s} and {@code %%} are split into literal
+ * segments once, other patterns fall back to {@link String#format(String, Object...)}.
+ * The last result is cached per value and locale, so repeated binds of an unchanged
+ * preference allocate nothing. Preferences keep a formatter for their summary with
+ * {@link #update(SummaryFormatter, CharSequence)}, so the pattern is compiled when the
+ * summary is set.
+ */
+final class SummaryFormatter {
+
+    private final String mPattern;
+
+    /**
+     * The literal text between value markers, or null if the pattern needs
+     * {@link String#format(String, Object...)}.
+     */
+    private final String[] mSegments;
+
+    private String mLastValue;
+    private Locale mLastLocale;
+    private String mLastResult;
+
+    SummaryFormatter(String pattern) {
+        mPattern = pattern;
+        mSegments = compile(pattern);
+    }
+
+    /**
+     * Returns a formatter for a summary pattern, reusing the current one if it was compiled
+     * from the same pattern.
+     *
+     * @param formatter The current formatter, or null.
+     * @param pattern The summary pattern, or null.
+     * @return The formatter, or null if the pattern is null.
+     */
+    static SummaryFormatter update(SummaryFormatter formatter, CharSequence pattern) {
+        if (pattern == null) {
+            return null;
+        }
+        if (formatter != null && formatter.mPattern.contentEquals(pattern)) {
+            return formatter;
+        }
+        return new SummaryFormatter(pattern.toString());
+    }
+
+    /**
+     * Splits a pattern at its value markers.
+     *
+     * @return The literal segments, one more than there are markers, or null if the pattern
+     *         has other format specifiers.
+     */
+    static String[] compile(String pattern) {
+        final ArrayList<String> segments = new ArrayList<>(2);
+        final StringBuilder segment = new StringBuilder(pattern.length());
+        boolean sequentialUsed = false;
+
+        int i = 0;
+        final int length = pattern.length();
+        while (i < length) {
+            final char c = pattern.charAt(i);
+            if (c != '%') {
+                segment.append(c);
+                i++;
+                continue;
+            }
+
+            if (pattern.startsWith("%%", i)) {
+                segment.append('%');
+                i += 2;
+            } else if (pattern.startsWith("%s", i)) {
+                if (sequentialUsed) {
+                    // A second %s refers to a missing argument, let String.format throw
+                    return null;
+                }
+                sequentialUsed = true;
+                segments.add(segment.toString());
+                segment.setLength(0);
+                i += 2;
+            } else if (pattern.startsWith("%1$s", i)) {
+                segments.add(segment.toString());
+                segment.setLength(0);
+                i += 4;
+            } else {
+                return null;
+            }
+        }
+        segments.add(segment.toString());
+
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    /**
+     * Formats the pattern with a value.
+     *
+     * @param value The value, null is formatted as an empty string.
+     * @return The formatted summary.
+     */
+    String format(CharSequence value) {
+        if (value == null) {
+            value = "";
+        }
+        final Locale locale = Locale.getDefault();
+        // Compared by content, so that an unchanged Spanned value is not converted again
+        if (mLastResult != null && mLastValue.contentEquals(value)
+                && locale.equals(mLastLocale)) {
+            return mLastResult;
+        }
+
+        final String string = value.toString();
+
+        final String result;
+        if (mSegments == null) {
+            result = String.format(mPattern, string);
+        } else if (mSegments.length == 1) {
+            result = mSegments[0];
+        } else {
+            final StringBuilder builder = new StringBuilder(
+                    mPattern.length() + string.length() * (mSegments.length - 1));
+            builder.append(mSegments[0]);
+            for (int i = 1; i < mSegments.length; i++) {
+                builder.append(string).append(mSegments[i]);
+            }
+            result = builder.toString();
+        }
+
+        mLastValue = string;
+        mLastLocale = locale;
+        mLastResult = result;
+        return result;
+    }
+}
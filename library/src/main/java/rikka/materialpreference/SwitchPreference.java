@@ -190,7 +190,7 @@ public class SwitchPreference extends TwoStatePreference {
         View switchView = view.findViewById(R.id.switchWidget);
         syncSwitchView(switchView);
         View summaryView = view.findViewById(android.R.id.summary);
-        syncSummaryView(summaryView);
+        syncSummaryView(summaryView != null ? summaryView : view);
     }
 
     private void syncSwitchView(final View view) {
@@ -0,0 +1,178 @@
+package rikka.materialpreference;
+
+import android.text.Layout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.SparseIntArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lays out the titles and summaries of preferences shown in {@link PreferenceRowView}s on
+ * the {@link PreferenceWorker} thread and caches the result on each {@link Preference}. A
+ * row uses the cached layout when it was computed for the width the row gives its text.
+ * <p>
+ * The text appearance and widths are taken from the rows that have been measured. The
+ * width of the text depends on the icon and the widget of a row, so it is recorded for
+ * each widget layout, with and without an icon. Nothing is computed for preferences
+ * shown with inflated layouts, whose {@link android.widget.TextView}s lay out the text
+ * themselves.
+ */
+final class TextLayoutPrecomputer {
+
+    /**
+     * A text to lay out and where to put the result.
+     */
+    private static final class Job {
+        final Preference preference;
+        final boolean title;
+        final CharSequence text;
+        final TextPaint paint;
+        final int width;
+        Layout layout;
+
+        Job(Preference preference, boolean title, CharSequence text, TextPaint paint,
+                int width) {
+            this.preference = preference;
+            this.title = title;
+            this.text = text;
+            // StaticLayout may change the paint, so each job gets its own copy
+            this.paint = new TextPaint(paint);
+            this.width = width;
+        }
+    }
+
+    private TextPaint mTitlePaint;
+    private TextPaint mSummaryPaint;
+
+    /**
+     * Text widths of measured rows by widget layout, for rows without and with an icon.
+     */
+    private final SparseIntArray[] mTextWidths = {new SparseIntArray(), new SparseIntArray()};
+
+    /**
+     * Records the text appearance and text width of a measured row, used for later
+     * precomputation.
+     *
+     * @param titlePaint The paint of the title.
+     * @param summaryPaint The paint of the summary.
+     * @param icon Whether the row keeps space for an icon.
+     * @param widgetLayoutResId The widget layout of the row, or 0.
+     * @param textWidth The width left for the text.
+     */
+    void recordRow(TextPaint titlePaint, TextPaint summaryPaint, boolean icon,
+            int widgetLayoutResId, int textWidth) {
+        if (textWidth <= 0) {
+            return;
+        }
+
+        if (mTitlePaint == null || !isSameAppearance(mTitlePaint, titlePaint)) {
+            mTitlePaint = new TextPaint(titlePaint);
+        }
+        if (mSummaryPaint == null || !isSameAppearance(mSummaryPaint, summaryPaint)) {
+            mSummaryPaint = new TextPaint(summaryPaint);
+        }
+        mTextWidths[icon ? 1 : 0].put(widgetLayoutResId, textWidth);
+    }
+
+    /**
+     * Forgets the recorded rows, so that nothing is computed until a row is measured again.
+     */
+    void clear() {
+        mTitlePaint = null;
+        mSummaryPaint = null;
+        mTextWidths[0].clear();
+        mTextWidths[1].clear();
+    }
+
+    /**
+     * Lays out the title and summary of each preference in the background, skipping texts
+     * whose cached layout is still current and preferences whose kind of row has not been
+     * measured yet.
+     *
+     * @param preferences The preferences.
+     */
+    void precompute(List<Preference> preferences) {
+        final TextPaint titlePaint = mTitlePaint;
+        final TextPaint summaryPaint = mSummaryPaint;
+        if (titlePaint == null || summaryPaint == null) {
+            return;
+        }
+
+        final ArrayList<Job> jobs = new ArrayList<>();
+        final int count = preferences.size();
+        for (int i = 0; i < count; i++) {
+            final Preference preference = preferences.get(i);
+            if (preference.getLayoutResource() != R.layout.preference_material) {
+                continue;
+            }
+
+            final int width = mTextWidths[preference.hasIcon() ? 1 : 0].get(
+                    preference.getWidgetLayoutResource(), 0);
+            if (width <= 0) {
+                continue;
+            }
+
+            final CharSequence title = preference.getTitle();
+            if (!TextUtils.isEmpty(title) && !isCurrent(
+                    preference.getPrecomputedLayout(true, title), titlePaint, width)) {
+                jobs.add(new Job(preference, true, title, titlePaint, width));
+            }
+
+            final CharSequence summary = preference.getSummary();
+            if (!TextUtils.isEmpty(summary) && !isCurrent(
+                    preference.getPrecomputedLayout(false, summary), summaryPaint, width)) {
+                jobs.add(new Job(preference, false, summary, summaryPaint, width));
+            }
+        }
+
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        PreferenceWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Job job : jobs) {
+                    job.layout = job.title
+                            ? PreferenceRowView.createTitleLayout(job.text, job.paint, job.width)
+                            : PreferenceRowView.createSummaryLayout(job.text, job.paint,
+                                    job.width);
+                }
+
+                PreferenceWorker.postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Job job : jobs) {
+                            job.preference.setPrecomputedLayout(job.title, job.text,
+                                    job.layout);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns whether a layout was computed for the given appearance and width.
+     *
+     * @param layout The layout, or null.
+     * @param paint The paint the text is drawn with.
+     * @param width The width of the text.
+     */
+    static boolean isCurrent(Layout layout, TextPaint paint, int width) {
+        return layout != null && layout.getWidth() == width
+                && isSameAppearance(layout.getPaint(), paint);
+    }
+
+    /**
+     * Returns whether two paints measure text the same way. The color is not compared.
+     */
+    private static boolean isSameAppearance(TextPaint a, TextPaint b) {
+        return a.getTextSize() == b.getTextSize()
+                && a.getTextScaleX() == b.getTextScaleX()
+                && a.getTypeface() == b.getTypeface()
+                && a.getFlags() == b.getFlags();
+    }
+}
@@ -17,14 +17,19 @@
 package rikka.materialpreference;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.TextUtils;
 import android.util.AttributeSet;
+import android.util.JsonReader;
+import android.util.JsonWriter;
 import android.view.View;
 import android.widget.TextView;
 
+import java.io.IOException;
+
 /**
  * Common base class for preferences that have two selectable states, persist a
  * boolean value in SharedPreferences, and may have dependent preferences that are
@@ -80,6 +85,7 @@ public abstract class TwoStatePreference extends Preference {
             if (changed) {
                 notifyDependencyChange(shouldDisableDependents());
                 notifyChanged();
+                notifyValueChanged();
             }
         }
     }
@@ -93,6 +99,11 @@ public abstract class TwoStatePreference extends Preference {
         return mChecked;
     }
 
+    @Override
+    protected Object getPredicateValue() {
+        return mChecked;
+    }
+
     @Override
     public boolean shouldDisableDependents() {
         boolean shouldDisable = mDisableDependentsState ? mChecked : !mChecked;
@@ -187,6 +198,19 @@ public abstract class TwoStatePreference extends Preference {
                 : (Boolean) defaultValue);
     }
 
+    @Override
+    protected boolean onExportValue(JsonWriter writer) throws IOException {
+        writer.name(getKey()).value(getPersistedBoolean(mChecked));
+        return true;
+    }
+
+    @Override
+    protected boolean onImportValue(JsonReader reader, SharedPreferences.Editor editor)
+            throws IOException {
+        editor.putBoolean(getKey(), reader.nextBoolean());
+        return true;
+    }
+
     /**
      * Sync a summary holder contained within holder's subhierarchy with the correct summary text.
      * @param holder PreferenceViewHolder which holds a reference to the summary view
@@ -194,6 +218,9 @@ public abstract class TwoStatePreference extends Preference {
     protected void syncSummaryView(PreferenceViewHolder holder) {
         // Sync the summary holder
         View view = holder.findViewById(android.R.id.summary);
+        if (view == null && holder.itemView instanceof PreferenceRowView) {
+            view = holder.itemView;
+        }
         syncSummaryView(view);
     }
 
@@ -201,6 +228,17 @@ public abstract class TwoStatePreference extends Preference {
      * @hide
      */
     protected void syncSummaryView(View view) {
+        if (view instanceof PreferenceRowView) {
+            final PreferenceRowView row = (PreferenceRowView) view;
+            if (mChecked && !TextUtils.isEmpty(mSummaryOn)) {
+                row.setSummary(mSummaryOn);
+            } else if (!mChecked && !TextUtils.isEmpty(mSummaryOff)) {
+                row.setSummary(mSummaryOff);
+            } else {
+                row.setSummary(getSummary());
+            }
+            return;
+        }
         if (!(view instanceof TextView)) {
             return;
         }
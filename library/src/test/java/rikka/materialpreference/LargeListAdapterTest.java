@@ -0,0 +1,68 @@
+package rikka.materialpreference;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class LargeListAdapterTest {
+
+    private static final CharSequence[] ENTRIES = {
+            "United Kingdom",
+            "United States",
+            "South Africa",
+            "South Korea",
+            "Korea, North",
+    };
+
+    private static String match(String query) {
+        final LargeListAdapter.WordIndex index =
+                new LargeListAdapter.WordIndex(ENTRIES, Locale.ROOT);
+        return index.match(PreferenceSearchIndex.tokenize(query, Locale.ROOT)).toString();
+    }
+
+    @Test
+    public void match_wordPrefix() {
+        assertEquals("{0, 1}", match("unit"));
+        assertEquals("{3, 4}", match("kor"));
+    }
+
+    @Test
+    public void match_notInsideWord() {
+        assertEquals("{}", match("nited"));
+    }
+
+    @Test
+    public void match_everyWordInAnyOrder() {
+        assertEquals("{1}", match("sta uni"));
+        assertEquals("{4}", match("north korea"));
+        assertEquals("{}", match("south north"));
+    }
+
+    @Test
+    public void match_ignoresCaseAndPunctuation() {
+        assertEquals("{2}", match("SOUTH-afr"));
+    }
+
+    @Test
+    public void match_noWords() {
+        assertEquals(new BitSet(), new LargeListAdapter.WordIndex(ENTRIES, Locale.ROOT)
+                .match(PreferenceSearchIndex.tokenize(" ", Locale.ROOT)));
+    }
+
+    @Test
+    public void scan_sameAsWordIndex() {
+        final LargeListAdapter.WordIndex index =
+                new LargeListAdapter.WordIndex(ENTRIES, Locale.ROOT);
+        final String[] queries = {"unit", "kor", "nited", "sta uni", "north korea",
+                "south north", "SOUTH-afr", " "};
+        for (String query : queries) {
+            final List<String> words = PreferenceSearchIndex.tokenize(query, Locale.ROOT);
+            assertEquals(query, index.match(words),
+                    LargeListAdapter.scan(ENTRIES, Locale.ROOT, words));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package rikka.materialpreference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PreferenceIconSourceTest {
+
+    @Test
+    public void calculateInSampleSize_smallImageIsNotSampled() {
+        assertEquals(1, PreferenceIconSource.calculateInSampleSize(48, 48, 96, 96));
+        assertEquals(1, PreferenceIconSource.calculateInSampleSize(96, 96, 96, 96));
+    }
+
+    @Test
+    public void calculateInSampleSize_keepsImageAtLeastAsLargeAsBounds() {
+        assertEquals(2, PreferenceIconSource.calculateInSampleSize(192, 192, 96, 96));
+        assertEquals(2, PreferenceIconSource.calculateInSampleSize(383, 383, 96, 96));
+        assertEquals(4, PreferenceIconSource.calculateInSampleSize(384, 384, 96, 96));
+        assertEquals(16, PreferenceIconSource.calculateInSampleSize(4000, 3000, 96, 96));
+    }
+
+    @Test
+    public void calculateInSampleSize_limitedByShorterSide() {
+        // Halving again would make the height smaller than the bounds
+        assertEquals(2, PreferenceIconSource.calculateInSampleSize(1000, 200, 96, 96));
+        assertEquals(2, PreferenceIconSource.calculateInSampleSize(200, 1000, 96, 96));
+    }
+
+    @Test
+    public void calculateInSampleSize_unmeasuredBoundsAreNotSampled() {
+        assertEquals(1, PreferenceIconSource.calculateInSampleSize(1000, 1000, 0, 0));
+        assertEquals(1, PreferenceIconSource.calculateInSampleSize(1000, 1000, 96, -1));
+    }
+}
@@ -0,0 +1,67 @@
+package rikka.materialpreference;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PreferenceMigrationTest {
+
+    @Test
+    public void migrate_runsStepsInVersionOrder() {
+        final InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+        preferences.mValues.put("a", "1");
+
+        // Registered out of order: a -> b must run before b -> c
+        PreferenceMigration.migrate(preferences, new PreferenceMigration[]{
+                PreferenceMigration.rename(2, "b", "c"),
+                PreferenceMigration.rename(1, "a", "b"),
+        });
+
+        assertEquals("1", preferences.getString("c", null));
+        assertFalse(preferences.contains("a"));
+        assertFalse(preferences.contains("b"));
+        assertEquals(2, preferences.getInt(PreferenceManager.KEY_MIGRATION_VERSION, 0));
+        assertEquals(1, preferences.mCommitCount);
+    }
+
+    @Test
+    public void migrate_skipsRecordedVersions() {
+        final InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+        preferences.mValues.put(PreferenceManager.KEY_MIGRATION_VERSION, 1);
+        preferences.mValues.put("a", "1");
+        preferences.mValues.put("b", "2");
+
+        PreferenceMigration.migrate(preferences, new PreferenceMigration[]{
+                PreferenceMigration.rename(1, "a", "x"),
+                PreferenceMigration.retype(2, "b", new PreferenceMigration.Converter() {
+                    @Override
+                    public Object convert(Object value) {
+                        return Integer.parseInt((String) value);
+                    }
+                }),
+        });
+
+        assertEquals("1", preferences.getString("a", null));
+        assertFalse(preferences.contains("x"));
+        assertEquals(2, preferences.getInt("b", 0));
+        assertEquals(2, preferences.getInt(PreferenceManager.KEY_MIGRATION_VERSION, 0));
+    }
+
+    @Test
+    public void migrate_doesNothingWhenUpToDate() {
+        final InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+        preferences.mValues.put(PreferenceManager.KEY_MIGRATION_VERSION, 3);
+        preferences.mValues.put("a", "1");
+
+        PreferenceMigration.migrate(preferences, new PreferenceMigration[]{
+                PreferenceMigration.rename(3, "a", "b"),
+        });
+
+        final Map<String, ?> values = preferences.getAll();
+        assertEquals("1", values.get("a"));
+        assertEquals(0, preferences.mCommitCount);
+    }
+}
@@ -0,0 +1,57 @@
+package rikka.materialpreference;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class PreferenceSearchIndexTest {
+
+    @Test
+    public void tokenize_splitsOnNonLetterOrDigit() {
+        assertEquals(Arrays.asList("wi", "fi", "5ghz", "band"),
+                PreferenceSearchIndex.tokenize("Wi-Fi 5GHz  band!", Locale.ROOT));
+    }
+
+    @Test
+    public void tokenize_lowerCasesWithLocale() {
+        assertEquals(Collections.singletonList("\u0131\u0131"),
+                PreferenceSearchIndex.tokenize("II", new Locale("tr")));
+    }
+
+    @Test
+    public void tokenize_nullOrEmpty() {
+        assertEquals(Collections.<String>emptyList(),
+                PreferenceSearchIndex.tokenize(null, Locale.ROOT));
+        assertEquals(Collections.<String>emptyList(),
+                PreferenceSearchIndex.tokenize(" - ", Locale.ROOT));
+    }
+
+    @Test
+    public void editDistance_countsEdits() {
+        assertEquals(0, PreferenceSearchIndex.editDistance("volume", "volume", 2));
+        // Substitution, insertion and deletion
+        assertEquals(1, PreferenceSearchIndex.editDistance("volume", "volime", 2));
+        assertEquals(1, PreferenceSearchIndex.editDistance("volume", "volumes", 2));
+        assertEquals(1, PreferenceSearchIndex.editDistance("volume", "volme", 2));
+        assertEquals(2, PreferenceSearchIndex.editDistance("notification", "notifcaton", 2));
+    }
+
+    @Test
+    public void editDistance_capsAtMaxDistancePlusOne() {
+        assertEquals(2, PreferenceSearchIndex.editDistance("kitten", "sitting", 1));
+        // Length difference alone exceeds the limit
+        assertEquals(2, PreferenceSearchIndex.editDistance("ab", "abcdef", 1));
+        assertEquals(3, PreferenceSearchIndex.editDistance("kitten", "sitting", 3));
+    }
+
+    @Test
+    public void editDistance_emptyStrings() {
+        assertEquals(0, PreferenceSearchIndex.editDistance("", "", 2));
+        assertEquals(2, PreferenceSearchIndex.editDistance("", "ab", 2));
+        assertEquals(3, PreferenceSearchIndex.editDistance("abc", "", 2));
+    }
+}
@@ -0,0 +1,45 @@
+package rikka.materialpreference;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SharedPreferencesTasksTest {
+
+    @Test
+    public void await_reportsFailureOfEarlierTask() {
+        final AtomicBoolean laterRan = new AtomicBoolean();
+        SharedPreferencesTasks.submit("failure", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("migration failed");
+            }
+        });
+        SharedPreferencesTasks.submit("failure", new Runnable() {
+            @Override
+            public void run() {
+                laterRan.set(true);
+            }
+        });
+
+        try {
+            SharedPreferencesTasks.await("failure");
+            fail("The failure of the first task was lost");
+        } catch (IllegalStateException e) {
+            assertEquals("migration failed", e.getMessage());
+        }
+        assertTrue(laterRan.get());
+
+        // Consumed by the first awaiter
+        SharedPreferencesTasks.await("failure");
+    }
+
+    @Test
+    public void await_returnsWhenNothingPending() {
+        SharedPreferencesTasks.await("nothing");
+    }
+}
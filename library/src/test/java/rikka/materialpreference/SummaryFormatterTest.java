@@ -0,0 +1,64 @@
+package rikka.materialpreference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SummaryFormatterTest {
+
+    @Test
+    public void compile_splitsAtValueMarkers() {
+        assertArrayEquals(new String[]{"Currently ", ""},
+                SummaryFormatter.compile("Currently %s"));
+        assertArrayEquals(new String[]{"", " of ", ""},
+                SummaryFormatter.compile("%1$s of %1$s"));
+        assertArrayEquals(new String[]{"Plain"}, SummaryFormatter.compile("Plain"));
+    }
+
+    @Test
+    public void compile_unescapesPercent() {
+        assertArrayEquals(new String[]{"100% ", ""}, SummaryFormatter.compile("100%% %s"));
+    }
+
+    @Test
+    public void compile_otherSpecifiersNeedStringFormat() {
+        assertNull(SummaryFormatter.compile("%d items"));
+        assertNull(SummaryFormatter.compile("%5s"));
+        // The second %s refers to a missing argument
+        assertNull(SummaryFormatter.compile("%s and %s"));
+    }
+
+    @Test
+    public void format_substitutesValue() {
+        final SummaryFormatter formatter = new SummaryFormatter("Currently %s");
+        assertEquals("Currently Wi-Fi", formatter.format("Wi-Fi"));
+        assertEquals("Currently ", formatter.format(null));
+        assertEquals("100%", new SummaryFormatter("100%%").format("ignored"));
+    }
+
+    @Test
+    public void format_fallsBackToStringFormat() {
+        assertEquals("   ab", new SummaryFormatter("%5s").format("ab"));
+    }
+
+    @Test
+    public void format_reusesResultForEqualContent() {
+        final SummaryFormatter formatter = new SummaryFormatter("Currently %s");
+        final String result = formatter.format("value");
+        assertSame(result, formatter.format(new StringBuilder("value")));
+        assertNotSame(result, formatter.format("other"));
+    }
+
+    @Test
+    public void update_keepsFormatterOfSamePattern() {
+        final SummaryFormatter formatter = SummaryFormatter.update(null, "Currently %s");
+        assertSame(formatter,
+                SummaryFormatter.update(formatter, new StringBuilder("Currently %s")));
+        assertNotSame(formatter, SummaryFormatter.update(formatter, "Now %s"));
+        assertNull(SummaryFormatter.update(formatter, null));
+    }
+}
@@ -0,0 +1,130 @@
+package rikka.materialpreference.sample;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Debug;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.transition.TransitionInflater;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.widget.PopupWindow;
+
+import java.util.ArrayList;
+
+import rikka.materialpreference.PreferenceManager;
+import rikka.materialpreference.SimpleMenuPreference;
+
+/**
+ * Measures what creating the popup of a {@link SimpleMenuPreference} lazily saves: the
+ * constructor of the preference as it is now, and the popup work every constructor used to
+ * do eagerly, which is now done once per screen when a menu is first opened.
+ * <p>
+ * Results are logged with the tag {@value #TAG}.
+ */
+public class SimpleMenuPreferenceBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "SimpleMenuBenchmark";
+
+    private static final int COUNT = 100;
+
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new ContextThemeWrapper(getContext(), R.style.AppTheme);
+        mContext.getTheme().applyStyle(rikka.materialpreference.R.style.PreferenceThemeOverlay,
+                true);
+
+        // Warm up class loading and resource caches for both measurements
+        new SimpleMenuPreference(mContext);
+        createEagerPopup();
+    }
+
+    /**
+     * The popup work the constructor of {@link SimpleMenuPreference} did for every
+     * preference.
+     */
+    private Object[] createEagerPopup() {
+        final RecyclerView recyclerView = (RecyclerView) LayoutInflater.from(mContext)
+                .inflate(rikka.materialpreference.R.layout.simple_menu_recycler_view, null);
+        recyclerView.setLayoutManager(
+                new LinearLayoutManager(mContext, LinearLayoutManager.VERTICAL, false));
+
+        final PopupWindow popupWindow = new PopupWindow(mContext);
+        popupWindow.setContentView(recyclerView);
+
+        Object transition = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            transition = TransitionInflater.from(mContext).inflateTransition(
+                    rikka.materialpreference.R.transition.simple_menu_enter);
+        }
+        return new Object[] {recyclerView, popupWindow, transition};
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testLazyPopup_savings() {
+        final ArrayList<Object> retained = new ArrayList<>(COUNT);
+
+        // Preferences as they are now
+        long heap = usedHeap();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < COUNT; i++) {
+            retained.add(new SimpleMenuPreference(mContext));
+        }
+        final long preferenceNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        final long preferenceAllocated = Debug.getThreadAllocSize();
+        final long preferenceRetained = usedHeap() - heap;
+        retained.clear();
+
+        // The popup work each of them used to do on top of that
+        heap = usedHeap();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        start = System.nanoTime();
+        for (int i = 0; i < COUNT; i++) {
+            retained.add(createEagerPopup());
+        }
+        final long popupNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        final long popupAllocated = Debug.getThreadAllocSize();
+        final long popupRetained = usedHeap() - heap;
+        retained.clear();
+
+        Log.i(TAG, "Per SimpleMenuPreference, API " + Build.VERSION.SDK_INT + ": constructor "
+                + preferenceNanos / COUNT / 1000 + " us, " + preferenceAllocated / COUNT
+                + " bytes allocated, " + preferenceRetained / COUNT + " bytes retained");
+        Log.i(TAG, "Saved per SimpleMenuPreference by the lazy popup: "
+                + popupNanos / COUNT / 1000 + " us, " + popupAllocated / COUNT
+                + " bytes allocated, " + popupRetained / COUNT + " bytes retained");
+    }
+
+    /**
+     * Inflates the settings of the sample, which has several simple menus, and logs the
+     * time. No popup is created until a menu is opened.
+     */
+    public void testInflateSettings() {
+        final PreferenceManager preferenceManager = new PreferenceManager(mContext, null);
+
+        final long start = System.nanoTime();
+        preferenceManager.inflateFromResource(mContext, R.xml.settings, null);
+        final long nanos = System.nanoTime() - start;
+
+        Log.i(TAG, "Inflated R.xml.settings in " + nanos / 1000 + " us");
+    }
+}